@@ -64,6 +64,15 @@ public class AppInfo extends ItemInfo {
      */
     int isDisabled = ShortcutInfo.DEFAULT;
 
+    /**
+     * The collation key and the all apps section name of the title, resolved by the
+     * {@link IconCache} along with the title. They only apply to sortKeyTitle, so they are ignored
+     * once the title is replaced.
+     */
+    public byte[] titleSortKey;
+    public String titleSectionName;
+    private CharSequence sortKeyTitle;
+
     AppInfo() {
         itemType = LauncherSettings.BaseLauncherColumns.ITEM_TYPE_SHORTCUT;
     }
@@ -123,6 +132,25 @@ public class AppInfo extends ItemInfo {
         flags = info.flags;
         isDisabled = info.isDisabled;
         iconBitmap = info.iconBitmap;
+        if (info.hasTitleSortKey()) {
+            setTitleSortKey(info.titleSortKey, info.titleSectionName);
+        }
+    }
+
+    /**
+     * Sets the sort key and section name of the current title.
+     */
+    void setTitleSortKey(byte[] sortKey, String sectionName) {
+        sortKeyTitle = title;
+        titleSortKey = sortKey;
+        titleSectionName = sectionName;
+    }
+
+    /**
+     * Returns whether the sort key and section name were resolved for the current title.
+     */
+    public boolean hasTitleSortKey() {
+        return titleSortKey != null && sortKeyTitle == title;
     }
 
     @Override
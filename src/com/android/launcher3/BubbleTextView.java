@@ -558,7 +558,9 @@ public class BubbleTextView extends TextView
                 if ((info.rank < FolderIcon.NUM_ITEMS_IN_PREVIEW) && (info.container >= 0)) {
                     View folderIcon =
                             mLauncher.getWorkspace().getHomescreenIconByItemId(info.container);
-                    if (folderIcon != null) {
+                    if (folderIcon instanceof FolderIcon) {
+                        ((FolderIcon) folderIcon).invalidatePreview();
+                    } else if (folderIcon != null) {
                         folderIcon.invalidate();
                     }
                 }
@@ -28,6 +28,7 @@ import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.PorterDuff;
@@ -54,6 +55,7 @@ import com.android.launcher3.util.Thunk;
 import com.mediatek.launcher3.LauncherLog;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * An icon that can appear on in the workspace representing an {@link UserFolder}.
@@ -125,6 +127,15 @@ public class FolderIcon extends FrameLayout implements FolderListener {
     @Thunk PreviewItemDrawingParams mAnimParams = new PreviewItemDrawingParams(0, 0, 0, 0);
     @Thunk ArrayList<ShortcutInfo> mHiddenItems = new ArrayList<ShortcutInfo>();
 
+    // The preview items and the unread badge are rendered into a bitmap, which is drawn as is
+    // until the folder content, an icon or the unread number changes.
+    private Bitmap mPreviewBitmap;
+    private final Canvas mPreviewCanvas = new Canvas();
+    private boolean mPreviewValid;
+    // The icons rendered in mPreviewBitmap, to detect items which were reordered or updated.
+    private final Drawable[] mPreviewDrawables = new Drawable[NUM_ITEMS_IN_PREVIEW];
+    private int mPreviewItemCount;
+
     private Alarm mOpenAlarm = new Alarm();
     @Thunk ItemInfo mDragInfo;
 
@@ -496,11 +507,12 @@ public class FolderIcon extends FrameLayout implements FolderListener {
             addItem(item);
             mHiddenItems.add(item);
             mFolder.hideItem(item);
+            invalidatePreview();
             postDelayed(new Runnable() {
                 public void run() {
                     mHiddenItems.remove(item);
                     mFolder.showItem(item);
-                    invalidate();
+                    invalidatePreview();
                 }
             }, DROP_IN_ANIMATION_DURATION);
         } else {
@@ -645,34 +657,78 @@ public class FolderIcon extends FrameLayout implements FolderListener {
         if (mFolder == null) return;
         if (mFolder.getItemCount() == 0 && !mAnimating) return;
 
+        if (mAnimating) {
+            // Update our drawing parameters if necessary
+            computePreviewDrawingParams(mAnimParams.drawable);
+            drawPreviewItem(canvas, mAnimParams);
+            MTKUnreadLoader.drawUnreadEventIfNeed(canvas, this);//add unread feature by zhaopenglin DWEQLSY-351
+            return;
+        }
+
+        final int width = getWidth();
+        final int height = getHeight();
+        if (width <= 0 || height <= 0) return;
+        if (mPreviewBitmap == null || mPreviewBitmap.getWidth() != width
+                || mPreviewBitmap.getHeight() != height) {
+            mPreviewBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mPreviewValid = false;
+        }
+
         ArrayList<View> items = mFolder.getItemsInReadingOrder();
-        Drawable d;
-        TextView v;
+        if (!mPreviewValid || !isPreviewUpToDate(items)) {
+            mPreviewBitmap.eraseColor(Color.TRANSPARENT);
+            mPreviewCanvas.setBitmap(mPreviewBitmap);
+            drawPreviewItems(mPreviewCanvas, items);
+            MTKUnreadLoader.drawUnreadEventIfNeed(mPreviewCanvas, this);//add unread feature by zhaopenglin DWEQLSY-351
+            mPreviewCanvas.setBitmap(null);
+            mPreviewValid = true;
+        }
+        canvas.drawBitmap(mPreviewBitmap, 0, 0, null);
+    }
 
+    private void drawPreviewItems(Canvas canvas, ArrayList<View> items) {
+        TextView v = (TextView) items.get(0);
+        Drawable d = getTopDrawable(v);
         // Update our drawing parameters if necessary
-        if (mAnimating) {
-            computePreviewDrawingParams(mAnimParams.drawable);
-        } else {
-            v = (TextView) items.get(0);
+        computePreviewDrawingParams(d);
+
+        int nItemsInPreview = Math.min(items.size(), NUM_ITEMS_IN_PREVIEW);
+        for (int i = nItemsInPreview - 1; i >= 0; i--) {
+            v = (TextView) items.get(i);
             d = getTopDrawable(v);
-            computePreviewDrawingParams(d);
+            mPreviewDrawables[i] = d;
+            if (!mHiddenItems.contains(v.getTag())) {
+                mParams = computePreviewItemDrawingParams(i, mParams);
+                mParams.drawable = d;
+                drawPreviewItem(canvas, mParams);
+            }
         }
+        mPreviewItemCount = nItemsInPreview;
+    }
 
+    /**
+     * Returns whether the cached preview shows the current icons of the first items.
+     */
+    private boolean isPreviewUpToDate(ArrayList<View> items) {
         int nItemsInPreview = Math.min(items.size(), NUM_ITEMS_IN_PREVIEW);
-        if (!mAnimating) {
-            for (int i = nItemsInPreview - 1; i >= 0; i--) {
-                v = (TextView) items.get(i);
-                if (!mHiddenItems.contains(v.getTag())) {
-                    d = getTopDrawable(v);
-                    mParams = computePreviewItemDrawingParams(i, mParams);
-                    mParams.drawable = d;
-                    drawPreviewItem(canvas, mParams);
-                }
+        if (nItemsInPreview != mPreviewItemCount) {
+            return false;
+        }
+        for (int i = 0; i < nItemsInPreview; i++) {
+            if (getTopDrawable((TextView) items.get(i)) != mPreviewDrawables[i]) {
+                return false;
             }
-        } else {
-            drawPreviewItem(canvas, mAnimParams);
         }
-        MTKUnreadLoader.drawUnreadEventIfNeed(canvas, this);//add unread feature by zhaopenglin DWEQLSY-351
+        return true;
+    }
+
+    /**
+     * Renders the preview again on the next draw, for changes which cannot be detected from the
+     * icons of the items, like an icon changing its state.
+     */
+    public void invalidatePreview() {
+        mPreviewValid = false;
+        invalidate();
     }
 
     private Drawable getTopDrawable(TextView v) {
@@ -713,6 +769,7 @@ public class FolderIcon extends FrameLayout implements FolderListener {
             @Override
             public void onAnimationEnd(Animator animation) {
                 mAnimating = false;
+                invalidatePreview();
                 if (onCompleteRunnable != null) {
                     onCompleteRunnable.run();
                 }
@@ -735,7 +792,7 @@ public class FolderIcon extends FrameLayout implements FolderListener {
     }
 
     public void onItemsChanged() {
-        invalidate();
+        invalidatePreview();
         requestLayout();
     }
 
@@ -752,7 +809,7 @@ public class FolderIcon extends FrameLayout implements FolderListener {
         final ComponentName componentName = item.intent.getComponent();
         updateFolderUnreadNum(componentName, item.unreadNum);
         //add unread feature by zhaopenglin DWEQLSY-351 end
-        invalidate();
+        invalidatePreview();
         requestLayout();
     }
 
@@ -769,7 +826,7 @@ public class FolderIcon extends FrameLayout implements FolderListener {
         updateFolderUnreadNum(componentName, item.unreadNum);
         //add unread feature by zhaopenglin DWEQLSY-351 end
 
-        invalidate();
+        invalidatePreview();
         requestLayout();
     }
 
@@ -834,10 +891,11 @@ public class FolderIcon extends FrameLayout implements FolderListener {
                    + ", this = " + this);
        }
 
-       if (unreadNum <= 0) {
-           mInfo.unreadNum = 0;
-       } else {
-           mInfo.unreadNum = unreadNum;
+       final int newUnreadNum = Math.max(unreadNum, 0);
+       if (mInfo.unreadNum != newUnreadNum) {
+           mInfo.unreadNum = newUnreadNum;
+           // The badge is part of the cached preview.
+           mPreviewValid = false;
        }
    }
 
@@ -887,6 +945,44 @@ public class FolderIcon extends FrameLayout implements FolderListener {
     * @param unreadNum the number of the unread message.
     */
    public void updateFolderUnreadNum(ComponentName component, int unreadNum) {
+       final ArrayList<ShortcutInfo> contents = mInfo.contents;
+       final int contentsCount = contents.size();
+       for (int i = 0; i < contentsCount; i++) {
+           final ShortcutInfo appInfo = contents.get(i);
+           final ComponentName name = appInfo.intent.getComponent();
+           if (name != null && name.equals(component)) {
+               appInfo.unreadNum = unreadNum;
+           }
+       }
+       updateFolderUnreadTotal();
+   }
+
+   /**
+    * M: Update the unread message of the shortcuts with the given components.
+    *
+    * @param changes the new unread number of each changed component.
+    * @return true if any shortcut in this folder was changed.
+    */
+   public boolean updateFolderUnreadNum(Map<ComponentName, Integer> changes) {
+       final ArrayList<ShortcutInfo> contents = mInfo.contents;
+       final int contentsCount = contents.size();
+       boolean changed = false;
+       for (int i = 0; i < contentsCount; i++) {
+           final ShortcutInfo appInfo = contents.get(i);
+           final ComponentName name = appInfo.intent.getComponent();
+           final Integer unreadNum = name != null ? changes.get(name) : null;
+           if (unreadNum != null && appInfo.unreadNum != unreadNum) {
+               appInfo.unreadNum = unreadNum;
+               changed = true;
+           }
+       }
+       if (changed) {
+           updateFolderUnreadTotal();
+       }
+       return changed;
+   }
+
+   private void updateFolderUnreadTotal() {
        final ArrayList<ShortcutInfo> contents = mInfo.contents;
        final int contentsCount = contents.size();
        int unreadNumTotal = 0;
@@ -896,9 +992,6 @@ public class FolderIcon extends FrameLayout implements FolderListener {
        for (int i = 0; i < contentsCount; i++) {
            appInfo = contents.get(i);
            name = appInfo.intent.getComponent();
-           if (name != null && name.equals(component)) {
-               appInfo.unreadNum = unreadNum;
-           }
            if (appInfo.unreadNum > 0) {
                int j = 0;
                for (j = 0; j < components.size(); j++) {
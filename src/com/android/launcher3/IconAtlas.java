@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A file keeping the decoded icons of the icon DB as raw pixels. The file is memory mapped, so
+ * loading an icon copies its pixels from the mapping instead of decoding its PNG blob.
+ *
+ * Each icon is stored with the length and checksum of the blob it was decoded from, and is only
+ * returned for the same blob, so the atlas does not need to follow the changes of the icon DB.
+ * Icons are appended as they are decoded, a later icon replacing the previous one of the same
+ * key, and the file is started over once it reaches its maximum size.
+ *
+ * This class is thread safe.
+ */
+class IconAtlas {
+    private static final String TAG = "Launcher.IconAtlas";
+
+    private static final int MAGIC = 0x49434f4e;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final byte CONFIG_ARGB_8888 = 0;
+    private static final byte CONFIG_RGB_565 = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final long mMaxSize;
+
+    // The following are guarded by this object.
+    private final HashMap<String, Entry> mIndex = new HashMap<>();
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mMapping;
+    private long mSize;
+    private boolean mOpened;
+
+    IconAtlas(File file, long maxSize) {
+        mFile = file;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the icon stored for the key, or null if there is none for the given blob.
+     */
+    Bitmap get(String key, byte[] blob) {
+        final long checksum = getChecksum(blob);
+        final Entry entry;
+        final ByteBuffer mapping;
+        synchronized (this) {
+            if (!ensureOpenLocked()) {
+                return null;
+            }
+            entry = mIndex.get(key);
+            if (entry == null || entry.blobLength != blob.length || entry.checksum != checksum
+                    || !ensureMappedLocked(entry.offset + entry.byteCount)) {
+                return null;
+            }
+            mapping = mMapping;
+        }
+
+        // A mapping stays valid once the file is started over, as the file is replaced.
+        try {
+            Bitmap icon = Bitmap.createBitmap(entry.width, entry.height, entry.config);
+            if (icon.getByteCount() != entry.byteCount) {
+                return null;
+            }
+            ByteBuffer pixels = mapping.duplicate();
+            pixels.limit(entry.offset + entry.byteCount);
+            pixels.position(entry.offset);
+            icon.copyPixelsFromBuffer(pixels);
+            return icon;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to read icon " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the icon decoded from the given blob.
+     */
+    void put(String key, byte[] blob, Bitmap icon) {
+        final byte config;
+        if (icon.getConfig() == Bitmap.Config.ARGB_8888) {
+            config = CONFIG_ARGB_8888;
+        } else if (icon.getConfig() == Bitmap.Config.RGB_565) {
+            config = CONFIG_RGB_565;
+        } else {
+            return;
+        }
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        final int byteCount = icon.getByteCount();
+        final int headerSize = 2 + keyBytes.length + 4 + 8 + 2 + 2 + 1 + 4;
+        if (keyBytes.length > Short.MAX_VALUE || icon.getWidth() > Short.MAX_VALUE
+                || icon.getHeight() > Short.MAX_VALUE
+                || FILE_HEADER_SIZE + headerSize + byteCount > mMaxSize) {
+            return;
+        }
+
+        final long checksum = getChecksum(blob);
+        ByteBuffer record = ByteBuffer.allocate(headerSize + byteCount);
+        record.putShort((short) keyBytes.length);
+        record.put(keyBytes);
+        record.putInt(blob.length);
+        record.putLong(checksum);
+        record.putShort((short) icon.getWidth());
+        record.putShort((short) icon.getHeight());
+        record.put(config);
+        record.putInt(byteCount);
+        icon.copyPixelsToBuffer(record);
+        record.flip();
+
+        synchronized (this) {
+            if (!ensureOpenLocked()) {
+                return;
+            }
+            try {
+                if (mSize + record.remaining() > mMaxSize) {
+                    resetLocked();
+                }
+                final long offset = mSize;
+                FileChannel channel = mRandomAccessFile.getChannel();
+                while (record.hasRemaining()) {
+                    channel.write(record, offset + record.position());
+                }
+                mSize = offset + record.limit();
+                mIndex.put(key, new Entry((int) (offset + headerSize), byteCount, blob.length,
+                        checksum, icon.getWidth(), icon.getHeight(), icon.getConfig()));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write icon " + key, e);
+                closeLocked();
+            }
+        }
+    }
+
+    private boolean ensureOpenLocked() {
+        if (mOpened) {
+            return mRandomAccessFile != null;
+        }
+        mOpened = true;
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mSize = mRandomAccessFile.length();
+            if (mSize < FILE_HEADER_SIZE || mSize > mMaxSize
+                    || mRandomAccessFile.readInt() != MAGIC
+                    || mRandomAccessFile.readInt() != VERSION) {
+                resetLocked();
+            } else {
+                readIndexLocked();
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open " + mFile, e);
+            closeLocked();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the entries of the file. A record cut short by a crash ends the file.
+     */
+    private void readIndexLocked() throws IOException {
+        MappedByteBuffer mapping = mRandomAccessFile.getChannel()
+                .map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+        mapping.position(FILE_HEADER_SIZE);
+        int end = FILE_HEADER_SIZE;
+        try {
+            while (mapping.hasRemaining()) {
+                byte[] keyBytes = new byte[mapping.getShort()];
+                mapping.get(keyBytes);
+                int blobLength = mapping.getInt();
+                long checksum = mapping.getLong();
+                int width = mapping.getShort();
+                int height = mapping.getShort();
+                byte config = mapping.get();
+                int byteCount = mapping.getInt();
+                int offset = mapping.position();
+                if (byteCount < 0 || byteCount > mapping.remaining()
+                        || (config != CONFIG_ARGB_8888 && config != CONFIG_RGB_565)) {
+                    break;
+                }
+                mapping.position(offset + byteCount);
+                end = mapping.position();
+                mIndex.put(new String(keyBytes, UTF_8),
+                        new Entry(offset, byteCount, blobLength, checksum, width, height,
+                                config == CONFIG_ARGB_8888
+                                        ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565));
+            }
+        } catch (RuntimeException e) {
+            // A record cut short, keep the ones read so far.
+        }
+        if (end < mSize) {
+            // No icon was read from the file yet, so the rest can be dropped.
+            mRandomAccessFile.setLength(end);
+            mSize = end;
+            mapping = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+        }
+        mMapping = mapping;
+    }
+
+    private boolean ensureMappedLocked(int end) {
+        if (mMapping != null && mMapping.capacity() >= end) {
+            return true;
+        }
+        try {
+            mMapping = mRandomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+            return mMapping.capacity() >= end;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to map " + mFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts the file over. The file is replaced rather than truncated, so that the icons being
+     * copied from a previous mapping stay readable.
+     */
+    private void resetLocked() throws IOException {
+        mIndex.clear();
+        mMapping = null;
+        if (mRandomAccessFile != null) {
+            mRandomAccessFile.close();
+        }
+        mFile.delete();
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.writeInt(MAGIC);
+        mRandomAccessFile.writeInt(VERSION);
+        mSize = FILE_HEADER_SIZE;
+    }
+
+    private void closeLocked() {
+        mIndex.clear();
+        mMapping = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            mRandomAccessFile = null;
+        }
+    }
+
+    private static long getChecksum(byte[] blob) {
+        CRC32 crc = new CRC32();
+        crc.update(blob, 0, blob.length);
+        return crc.getValue();
+    }
+
+    private static class Entry {
+        final int offset;
+        final int byteCount;
+        final int blobLength;
+        final long checksum;
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Entry(int offset, int byteCount, int blobLength, long checksum, int width, int height,
+                Bitmap.Config config) {
+            this.offset = offset;
+            this.byteCount = byteCount;
+            this.blobLength = blobLength;
+            this.checksum = checksum;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+    }
+}
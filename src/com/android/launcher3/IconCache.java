@@ -41,16 +41,25 @@ import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.android.launcher3.compat.AlphabeticIndexCompat;
 import com.android.launcher3.compat.LauncherActivityInfoCompat;
 import com.android.launcher3.compat.LauncherAppsCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
 import com.android.launcher3.config.FeatureFlags;
+import com.android.launcher3.model.AppNameComparator;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.IconRenderExecutor;
+import com.android.launcher3.util.IconRenderExecutor.IndexedTask;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -68,22 +77,35 @@ public class IconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
-    private static final int INITIAL_ICON_CACHE_CAPACITY = 50;
-
     // Empty class name is used for storing package default entry.
     private static final String EMPTY_CLASS_NAME = ".";
 
     private static final boolean DEBUG = false;
 
+    private static final String CALENDAR_PACKAGE_NAME = "com.android.calendar";
+
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
     @Thunk static final Object ICON_UPDATE_TOKEN = new Object();
 
+    // Number of icons written to the DB in each transaction while updating the DB icons.
+    private static final int ICON_UPDATE_BATCH_SIZE = 10;
+
+    // Number of rows decoded together while preloading the DB entries.
+    private static final int PRELOAD_BATCH_SIZE = 32;
+
     @Thunk static class CacheEntry {
         public Bitmap icon;
         public CharSequence title = "";
         public CharSequence contentDescription = "";
         public boolean isLowResIcon;
+        // The system state (locale) in which the title was resolved
+        public String titleState;
+        // The day for which a dynamic calendar icon was rendered, see #getCalendarIconDay()
+        public int iconDay;
+        // The collation key and all apps section of the title, see #updateTitleSortKey()
+        public byte[] titleSortKey;
+        public String titleSectionName;
     }
 
     private final HashMap<UserHandleCompat, Bitmap> mDefaultIcons = new HashMap<>();
@@ -93,10 +115,11 @@ public class IconCache {
     private final PackageManager mPackageManager;
     @Thunk final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<ComponentKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    @Thunk final IconMemoryCache mCache;
     private final int mIconDpi;
     @Thunk final IconDB mIconDb;
+    // Keeps the decoded icons of the DB, null when it is disabled.
+    private final IconAtlas mIconAtlas;
 
     @Thunk final Handler mWorkerHandler;
 
@@ -107,16 +130,32 @@ public class IconCache {
     // The background color used for package icons. These are displayed in widget tray, which
     // has a dark quantum panel background.
     private final int mPackageBgColor;
-    private final BitmapFactory.Options mLowResOptions;
 
-    private String mSystemState;
+    // Labels waiting to be written to the DB, guarded by mPendingLabelValues.
+    private final ArrayList<ContentValues> mPendingLabelValues = new ArrayList<>();
+    private final ArrayList<String[]> mPendingLabelArgs = new ArrayList<>();
+    private final Runnable mFlushLabelsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingLabels();
+        }
+    };
+
+    // Resolve the sort keys and section names of the titles, for mTitleLocale.
+    private final Object mTitleKeyLock = new Object();
+    private Locale mTitleLocale;
+    private AppNameComparator mTitleComparator;
+    private AlphabeticIndexCompat mTitleIndexer;
+
+    private volatile String mSystemState;
+    private volatile Locale mSystemLocale;
     private Bitmap mLowResBitmap;
     private Canvas mLowResCanvas;
     private Paint mLowResPaint;
     private boolean isDynamCalender =false;//Add BUG_ID:DWYSBM-79 zhaopenglin 20160602
      //add by luoran for modify icon 20170309 start
-    private  Bitmap bgBitmap = null;
-    private  Bitmap maskBitmap = null;
+    // Creates the themed icons, null when is_rgk_support_bgicon is not set.
+    private final ThemedIconCompositor mThemedIcons;
     //add by luoran for modify icon 20170309 end
     public IconCache(Context context, InvariantDeviceProfile inv) {
         mContext = context;
@@ -129,38 +168,39 @@ public class IconCache {
             LauncherLog.d(TAG, "IconCache, mIconDpi = " + mIconDpi);
         }
         mIconDb = new IconDB(context, inv.iconBitmapSize);
+        int iconAtlasMaxKb = context.getResources().getInteger(R.integer.config_iconAtlasMaxKb);
+        mIconAtlas = iconAtlasMaxKb > 0 ? new IconAtlas(
+                new File(context.getCacheDir(), LauncherFiles.APP_ICONS_ATLAS),
+                1024L * iconAtlasMaxKb) : null;
+        mCache = new IconMemoryCache(1024L * context.getResources().getInteger(
+                R.integer.config_iconCacheMaxKb)) {
+
+            @Override
+            protected Bitmap createLowResIcon(CacheEntry entry) {
+                // Default icons are shared and compared by reference, drop those instead.
+                synchronized (mDefaultIcons) {
+                    if (entry.icon.getWidth() < LOW_RES_SCALE_FACTOR
+                            || mDefaultIcons.containsValue(entry.icon)) {
+                        return null;
+                    }
+                }
+                return Bitmap.createScaledBitmap(entry.icon,
+                        entry.icon.getWidth() / LOW_RES_SCALE_FACTOR,
+                        entry.icon.getHeight() / LOW_RES_SCALE_FACTOR, true);
+            }
+        };
 
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
 
         mActivityBgColor = context.getResources().getColor(R.color.quantum_panel_bg_color);
         mPackageBgColor = context.getResources().getColor(R.color.quantum_panel_bg_color_dark);
-        mLowResOptions = new BitmapFactory.Options();
-        // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
-        // automatically be loaded as ALPHA_8888.
-        mLowResOptions.inPreferredConfig = Bitmap.Config.RGB_565;
         updateSystemStateString();
 		isDynamCalender = context.getResources().getBoolean(R.bool.support_calendar_icon);//Add BUG_ID:DWYSBM-79 zhaopenglin 20160602
 	//add by luoran for modify icon 20170309 start
-	 if(context.getResources().getBoolean(R.bool.is_rgk_support_bgicon)){
-	        maskBitmap = getMaskBitmap();
-	        bgBitmap =getBitmap();
-	 }
+        mThemedIcons = context.getResources().getBoolean(R.bool.is_rgk_support_bgicon)
+                ? new ThemedIconCompositor(context) : null;
         //add by luoran for modify icon 20170309 end
     }
-    //add by luoran for modify icon 20170309 start
-    //get mask
-    private Bitmap getMaskBitmap() {
-        if(maskBitmap == null || maskBitmap.isRecycled()){
-             return BitmapFactory.decodeResource(mContext.getResources(), R.drawable.rgks_mask);
-        }else return null;
-    }
-    //get icon bg
-    private Bitmap getBitmap() {
-        if(bgBitmap == null || bgBitmap.isRecycled()){
-            return BitmapFactory.decodeResource(mContext.getResources(), R.drawable.rgks_bg);
-        }else return null;
-    }
-   //add by luoran for modify icon 20170309 end
     private Drawable getFullResDefaultActivityIcon() {
         return getFullResIcon(Resources.getSystem(), android.R.mipmap.sym_def_app_icon);
     }
@@ -217,53 +257,58 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandleCompat user) {
-        mCache.remove(new ComponentKey(componentName, user));
+    public void remove(ComponentName componentName, UserHandleCompat user) {
+        ComponentKey key = new ComponentKey(componentName, user);
+        synchronized (mCache.getLock(key)) {
+            mCache.remove(key);
+        }
     }
 
     /**
      * Remove any records for the supplied package name from memory.
      */
     private void removeFromMemCacheLocked(String packageName, UserHandleCompat user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<ComponentKey>();
-        for (ComponentKey key: mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
+        mCache.removePackage(packageName, user);
     }
 
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandleCompat user) {
-        removeIconsForPkg(packageName, user);
+    public void updateIconsForPkg(String packageName, UserHandleCompat user) {
+        // Resolve the package outside of the lock, to keep binder calls off the lookup path.
+        PackageInfo info;
+        List<LauncherActivityInfoCompat> apps;
         try {
-            PackageInfo info = mPackageManager.getPackageInfo(packageName,
+            info = mPackageManager.getPackageInfo(packageName,
                     PackageManager.GET_UNINSTALLED_PACKAGES);
-            long userSerial = mUserManager.getSerialNumberForUser(user);
-            for (LauncherActivityInfoCompat app : mLauncherApps.getActivityList(packageName, user)) {
-                addIconToDBAndMemCache(app, info, userSerial);
-            }
+            apps = mLauncherApps.getActivityList(packageName, user);
         } catch (NameNotFoundException e) {
             Log.d(TAG, "Package not found", e);
+            removeIconsForPkg(packageName, user);
             return;
         }
+        long userSerial = mUserManager.getSerialNumberForUser(user);
+        synchronized (mCache.getLock(packageName, user)) {
+            removeIconsForPkg(packageName, user);
+            ArrayList<ContentValues> valuesList = new ArrayList<>(apps.size());
+            for (LauncherActivityInfoCompat app : apps) {
+                valuesList.add(getValuesForDBAndMemCache(app, info, userSerial));
+            }
+            mIconDb.insertOrReplace(valuesList);
+        }
     }
 
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandleCompat user) {
-        removeFromMemCacheLocked(packageName, user);
-        long userSerial = mUserManager.getSerialNumberForUser(user);
-        mIconDb.delete(
-                IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[]{packageName + "/%", Long.toString(userSerial)});
+    public void removeIconsForPkg(String packageName, UserHandleCompat user) {
+        synchronized (mCache.getLock(packageName, user)) {
+            removeFromMemCacheLocked(packageName, user);
+            long userSerial = mUserManager.getSerialNumberForUser(user);
+            mIconDb.delete(
+                    IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
+                    new String[]{packageName + "/%", Long.toString(userSerial)});
+        }
     }
 
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
@@ -376,12 +421,16 @@ public class IconCache {
         }
     }
 
-    @Thunk void addIconToDBAndMemCache(LauncherActivityInfoCompat app, PackageInfo info,
-            long userSerial) {
+    /**
+     * Adds the app to the memory cache and returns the values to add it to the DB.
+     */
+    @Thunk ContentValues getValuesForDBAndMemCache(LauncherActivityInfoCompat app,
+            PackageInfo info, long userSerial) {
         // Reuse the existing entry if it already exists in the DB. This ensures that we do not
         // create bitmap if it was already created during loader.
         ContentValues values = updateCacheAndGetContentValues(app, false);
-        addIconToDB(values, app.getComponentName(), info, userSerial);
+        putVersionValues(values, app.getComponentName(), info, userSerial);
+        return values;
     }
 
     /**
@@ -390,16 +439,28 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        putVersionValues(values, key, info, userSerial);
+        mIconDb.insertOrReplace(values);
+    }
+
+    private void putVersionValues(ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
     }
 
     @Thunk ContentValues updateCacheAndGetContentValues(LauncherActivityInfoCompat app,
             boolean replaceExisting) {
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
+        synchronized (mCache.getLock(key)) {
+            return updateCacheAndGetContentValuesLocked(key, app, replaceExisting);
+        }
+    }
+
+    private ContentValues updateCacheAndGetContentValuesLocked(ComponentKey key,
+            LauncherActivityInfoCompat app, boolean replaceExisting) {
         CacheEntry entry = null;
         if (!replaceExisting) {
             entry = mCache.get(key);
@@ -411,14 +472,15 @@ public class IconCache {
         if (entry == null) {
             entry = new CacheEntry();
             //Modify BUG_ID:DWYSBM-79 zhaopenglin 20160602(start)
-            if(isDynamCalender && app.getComponentName().getPackageName().equals("com.android.calendar")){
+            if(isDynamCalender && app.getComponentName().getPackageName().equals(CALENDAR_PACKAGE_NAME)){
                 entry.icon = Utilities.createCalendarIconBitmap(app.getIcon(mIconDpi), mContext);
-            }else if(mContext.getResources().getBoolean(R.bool.is_rgk_support_bgicon)){
+                entry.iconDay = getCalendarIconDay();
+            }else if(mThemedIcons != null){
                  if(app.getComponentName().getPackageName().contains("com.google") ||app.getComponentName().getClassName().equals("com.android.vending.AssetBrowserActivity")
 			||app.getComponentName().getClassName().equals("com.google.android.apps.chrome.Main")){
-				entry.icon = Utilities.createIconBitmapWithFrame(app.getIcon(mIconDpi),mContext);
+				entry.icon = mThemedIcons.createFramedIcon(app.getIcon(mIconDpi), mContext);
                   }else{
-                 		entry.icon = Utilities.createIconBitmapWithMask(app.getIcon(mIconDpi), maskBitmap, bgBitmap, mContext);	
+                 		entry.icon = mThemedIcons.createMaskedIcon(app.getIcon(mIconDpi), mContext);	
                  }
 	      }else {
                  entry.icon = Utilities.createBadgedIconBitmap(
@@ -428,9 +490,14 @@ public class IconCache {
         }
         entry.title = app.getLabel();
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(new ComponentKey(app.getComponentName(), app.getUser()), entry);
+        entry.titleState = getSystemState();
+        updateTitleSortKey(entry);
+        mCache.put(key, entry);
 
-        return newContentValues(entry.icon, entry.title.toString(), mActivityBgColor);
+        ContentValues values =
+                newContentValues(entry.icon, entry.title.toString(), mActivityBgColor);
+        putTitleSortKey(values, entry);
+        return values;
     }
 
     /**
@@ -473,35 +540,42 @@ public class IconCache {
     /**
      * Fill in "application" with the icon and label for "info."
      */
-    public synchronized void getTitleAndIcon(AppInfo application,
+    public void getTitleAndIcon(AppInfo application,
             LauncherActivityInfoCompat info, boolean useLowResIcon) {
         UserHandleCompat user = info == null ? application.user : info.getUser();
-        CacheEntry entry = cacheLocked(application.componentName, info, user,
-                false, useLowResIcon);
-        application.title = Utilities.trim(entry.title);
-        application.iconBitmap = getNonNullIcon(entry, user);
-        application.contentDescription = entry.contentDescription;
-        application.usingLowResIcon = entry.isLowResIcon;
+        synchronized (mCache.getLock(application.componentName.getPackageName(), user)) {
+            CacheEntry entry = cacheLocked(application.componentName, info, user,
+                    false, useLowResIcon);
+            application.title = Utilities.trim(entry.title);
+            application.setTitleSortKey(entry.titleSortKey, entry.titleSectionName);
+            application.iconBitmap = getNonNullIcon(entry, user);
+            application.contentDescription = entry.contentDescription;
+            application.usingLowResIcon = entry.isLowResIcon;
+        }
     }
 
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
-        CacheEntry entry = cacheLocked(application.componentName, null, application.user,
-                false, application.usingLowResIcon);
-        if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
-            application.title = Utilities.trim(entry.title);
-            application.iconBitmap = entry.icon;
-            application.contentDescription = entry.contentDescription;
-            application.usingLowResIcon = entry.isLowResIcon;
+    public void updateTitleAndIcon(AppInfo application) {
+        synchronized (mCache.getLock(
+                application.componentName.getPackageName(), application.user)) {
+            CacheEntry entry = cacheLocked(application.componentName, null, application.user,
+                    false, application.usingLowResIcon);
+            if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
+                application.title = Utilities.trim(entry.title);
+                application.setTitleSortKey(entry.titleSortKey, entry.titleSectionName);
+                application.iconBitmap = entry.icon;
+                application.contentDescription = entry.contentDescription;
+                application.usingLowResIcon = entry.isLowResIcon;
+            }
         }
     }
 
     /**
      * Returns a high res icon for the given intent and user
      */
-    public synchronized Bitmap getIcon(Intent intent, UserHandleCompat user) {
+    public Bitmap getIcon(Intent intent, UserHandleCompat user) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
@@ -510,15 +584,18 @@ public class IconCache {
         }
 
         LauncherActivityInfoCompat launcherActInfo = mLauncherApps.resolveActivity(intent, user);
-        CacheEntry entry = cacheLocked(component, launcherActInfo, user, true, false /* useLowRes */);
-        return entry.icon;
+        synchronized (mCache.getLock(component.getPackageName(), user)) {
+            CacheEntry entry = cacheLocked(component, launcherActInfo, user, true,
+                    false /* useLowRes */);
+            return entry.icon;
+        }
     }
 
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param intent}. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
+    public void getTitleAndIcon(ShortcutInfo shortcutInfo, Intent intent,
             UserHandleCompat user, boolean useLowResIcon) {
         ComponentName component = intent.getComponent();
         // null info means not installed, but if we have a component from the intent then
@@ -537,43 +614,52 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    public synchronized void getTitleAndIcon(
+    public void getTitleAndIcon(
             ShortcutInfo shortcutInfo, ComponentName component, LauncherActivityInfoCompat info,
             UserHandleCompat user, boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(component, info, user, usePkgIcon, useLowResIcon);
-        shortcutInfo.setIcon(getNonNullIcon(entry, user));
-        shortcutInfo.title = Utilities.trim(entry.title);
-        shortcutInfo.usingFallbackIcon = isDefaultIcon(entry.icon, user);
-        shortcutInfo.usingLowResIcon = entry.isLowResIcon;
+        synchronized (mCache.getLock(component.getPackageName(), user)) {
+            CacheEntry entry = cacheLocked(component, info, user, usePkgIcon, useLowResIcon);
+            shortcutInfo.setIcon(getNonNullIcon(entry, user));
+            shortcutInfo.title = Utilities.trim(entry.title);
+            shortcutInfo.usingFallbackIcon = isDefaultIcon(entry.icon, user);
+            shortcutInfo.usingLowResIcon = entry.isLowResIcon;
+        }
     }
 
     /**
      * Fill in {@param appInfo} with the icon and label for {@param packageName}
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             String packageName, UserHandleCompat user, boolean useLowResIcon,
             PackageItemInfo infoOut) {
-        CacheEntry entry = getEntryForPackageLocked(packageName, user, useLowResIcon);
-        infoOut.iconBitmap = getNonNullIcon(entry, user);
-        infoOut.title = Utilities.trim(entry.title);
-        infoOut.usingLowResIcon = entry.isLowResIcon;
-        infoOut.contentDescription = entry.contentDescription;
+        synchronized (mCache.getLock(packageName, user)) {
+            CacheEntry entry = getEntryForPackageLocked(packageName, user, useLowResIcon);
+            infoOut.iconBitmap = getNonNullIcon(entry, user);
+            infoOut.title = Utilities.trim(entry.title);
+            infoOut.usingLowResIcon = entry.isLowResIcon;
+            infoOut.contentDescription = entry.contentDescription;
+        }
     }
 
-    public synchronized Bitmap getDefaultIcon(UserHandleCompat user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    public Bitmap getDefaultIcon(UserHandleCompat user) {
+        synchronized (mDefaultIcons) {
+            if (!mDefaultIcons.containsKey(user)) {
+                mDefaultIcons.put(user, makeDefaultIcon(user));
+            }
+            return mDefaultIcons.get(user);
         }
-        return mDefaultIcons.get(user);
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandleCompat user) {
-        return mDefaultIcons.get(user) == icon;
+        synchronized (mDefaultIcons) {
+            return mDefaultIcons.get(user) == icon;
+        }
     }
-    boolean isCalenderInfo;//Add BUG_ID:DWYSBM-79 zhaopenglin 20160602
+
     /**
      * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is not thread safe, the caller must hold the {@link IconMemoryCache} lock for
+     * the package of the component.
      */
     private CacheEntry cacheLocked(ComponentName componentName, LauncherActivityInfoCompat info,
             UserHandleCompat user, boolean usePackageIcon, boolean useLowResIcon) {
@@ -585,32 +671,35 @@ public class IconCache {
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
 		//Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(start)
-        isCalenderInfo= false;
-        if (info != null){
-            isCalenderInfo = info.getApplicationInfo().packageName.equals("com.android.calendar");
+        boolean isCalenderInfo = false;
+        if (isDynamCalender && info != null){
+            isCalenderInfo = info.getApplicationInfo().packageName.equals(CALENDAR_PACKAGE_NAME);
         }
+        // The dynamic calendar icon is only rendered again once the date has changed.
+        boolean calendarIconExpired = isCalenderInfo
+                && (entry == null || entry.iconDay != getCalendarIconDay());
         //Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(end)
-        if (isCalenderInfo || entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+        if (calendarIconExpired || entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             if (isCalenderInfo || !getEntryFromDB(cacheKey, entry, useLowResIcon)) {
                 if (info != null) {
                      //Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(start)
-                    if(isCalenderInfo && isDynamCalender) {
+                    if(isCalenderInfo) {
                         entry.icon = Utilities.createCalendarIconBitmap(info.getIcon(mIconDpi), mContext);
+                        entry.iconDay = getCalendarIconDay();
                     }else{
                     //Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(end)
-                    if(!mContext.getResources().getBoolean(R.bool.is_rgk_support_bgicon)){
+                    if(mThemedIcons == null){
                            entry.icon = Utilities.createBadgedIconBitmap(
                             info.getIcon(mIconDpi), info.getUser(), mContext);
                     }else{
                             if(info.getApplicationInfo().packageName.contains("com.google") ||componentName.getClassName().equals("com.android.vending.AssetBrowserActivity")
 				||componentName.getClassName().equals("com.google.android.apps.chrome.Main")){
-				entry.icon = Utilities.createIconBitmapWithFrame(info.getIcon(mIconDpi),mContext);
+				entry.icon = mThemedIcons.createFramedIcon(info.getIcon(mIconDpi), mContext);
                             }else{
-                    	entry.icon = Utilities.createIconBitmapWithMask(info.getIcon(mIconDpi),maskBitmap,bgBitmap,mContext);
+                    	entry.icon = mThemedIcons.createMaskedIcon(info.getIcon(mIconDpi), mContext);
                             }
                     }
                     //Modify by zhaopenglin for modify icon 20160816 end
@@ -644,48 +733,128 @@ public class IconCache {
             if (TextUtils.isEmpty(entry.title) && info != null) {
                 entry.title = info.getLabel();
                 entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+                entry.titleState = getSystemState();
             }
+            if (entry.titleSortKey == null && entry.title != null) {
+                updateTitleSortKey(entry);
+            }
+            mCache.put(cacheKey, entry);
         }
 
        ///M: ALPS02586389. Fix language switch slowly.
-       if (info != null) {
+       // Only query the label again when it was resolved for another locale.
+       if (info != null && !TextUtils.equals(entry.titleState, getSystemState())) {
            entry.title = info.getLabel();
+           entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+           entry.titleState = getSystemState();
+           updateTitleSortKey(entry);
+           updateLabelInDB(cacheKey, entry);
        }
 
         return entry;
     }
 
+    /**
+     * Persists a label resolved for the current system state, so that it is not fetched again
+     * from the package manager until the locale changes. The labels resolved after a locale
+     * change are written together in a single transaction.
+     */
+    private void updateLabelInDB(ComponentKey key, CacheEntry entry) {
+        ContentValues values = new ContentValues();
+        values.put(IconDB.COLUMN_LABEL, entry.title == null ? "" : entry.title.toString());
+        values.put(IconDB.COLUMN_SYSTEM_STATE, getSystemState());
+        putTitleSortKey(values, entry);
+        String[] whereArgs = new String[]{key.componentName.flattenToString(),
+                Long.toString(mUserManager.getSerialNumberForUser(key.user))};
+        synchronized (mPendingLabelValues) {
+            if (mPendingLabelValues.isEmpty()) {
+                mWorkerHandler.post(mFlushLabelsRunnable);
+            }
+            mPendingLabelValues.add(values);
+            mPendingLabelArgs.add(whereArgs);
+        }
+    }
+
+    @Thunk void flushPendingLabels() {
+        ArrayList<ContentValues> valuesList;
+        ArrayList<String[]> whereArgsList;
+        synchronized (mPendingLabelValues) {
+            valuesList = new ArrayList<>(mPendingLabelValues);
+            whereArgsList = new ArrayList<>(mPendingLabelArgs);
+            mPendingLabelValues.clear();
+            mPendingLabelArgs.clear();
+        }
+        mIconDb.update(valuesList,
+                IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
+                whereArgsList);
+    }
+
+    /**
+     * Resolves the sort key and the all apps section name of the entry title, so that sorting and
+     * sectioning the apps does not run the locale-sensitive comparisons again.
+     */
+    private void updateTitleSortKey(CacheEntry entry) {
+        String title = Utilities.trim(entry.title);
+        synchronized (mTitleKeyLock) {
+            Locale locale = Locale.getDefault();
+            if (!locale.equals(mTitleLocale)) {
+                mTitleLocale = locale;
+                mTitleComparator = new AppNameComparator(mContext);
+                mTitleIndexer = new AlphabeticIndexCompat(mContext);
+            }
+            entry.titleSortKey = mTitleComparator.getSortKey(title);
+            entry.titleSectionName = mTitleIndexer.computeSectionName(title);
+        }
+    }
+
+    private static void putTitleSortKey(ContentValues values, CacheEntry entry) {
+        values.put(IconDB.COLUMN_SORT_KEY, entry.titleSortKey);
+        values.put(IconDB.COLUMN_SECTION_NAME, entry.titleSectionName);
+    }
+
+    /**
+     * Returns a key identifying the current day, used to expire the dynamic calendar icon.
+     */
+    private static int getCalendarIconDay() {
+        Calendar calendar = Calendar.getInstance();
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
     /**
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandleCompat user,
+    public void cachePackageInstallInfo(String packageName, UserHandleCompat user,
+            Bitmap icon, CharSequence title) {
+        synchronized (mCache.getLock(packageName, user)) {
+            cachePackageInstallInfoLocked(packageName, user, icon, title);
+        }
+    }
+
+    private void cachePackageInstallInfoLocked(String packageName, UserHandleCompat user,
             Bitmap icon, CharSequence title) {
         removeFromMemCacheLocked(packageName, user);
 
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
 
         // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
-        }
+        CacheEntry entry = new CacheEntry();
         if (!TextUtils.isEmpty(title)) {
             entry.title = title;
         }
         if (icon != null) {
-	       if(mContext.getResources().getBoolean(R.bool.is_rgk_support_bgicon)){
+	       if(mThemedIcons != null){
 		     if(packageName.contains("com.google") ||packageName.equals("com.android.vending")
 			||packageName.equals("com.android.chrome")){
-				entry.icon = Utilities.createIconBitmapWithFrame(new BitmapDrawable(mContext.getResources(), icon),mContext);
+				entry.icon = mThemedIcons.createFramedIcon(new BitmapDrawable(mContext.getResources(), icon), mContext);
                   }else{
-                 		entry.icon = Utilities.createIconBitmapWithMask(new BitmapDrawable(mContext.getResources(), icon), maskBitmap, bgBitmap, mContext);
+                 		entry.icon = mThemedIcons.createMaskedIcon(new BitmapDrawable(mContext.getResources(), icon), mContext);
                   }
 	      }else{
                  entry.icon = Utilities.createIconBitmap(icon, mContext);
 	      }
         }
+        mCache.put(cacheKey, entry);
     }
 
     private static ComponentKey getPackageKey(String packageName, UserHandleCompat user) {
@@ -695,7 +864,8 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * This method is not thread safe, the caller must hold the {@link IconMemoryCache} lock for
+     * the package.
      */
     private CacheEntry getEntryForPackageLocked(String packageName, UserHandleCompat user,
             boolean useLowResIcon) {
@@ -717,14 +887,14 @@ public class IconCache {
                         throw new NameNotFoundException("ApplicationInfo is null");
                     }
                     //Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(start)
-                    if(isDynamCalender && packageName.equals("com.android.calendar")){
+                    if(isDynamCalender && packageName.equals(CALENDAR_PACKAGE_NAME)){
                         entry.icon = Utilities.createCalendarIconBitmap(appInfo.loadIcon(mPackageManager), mContext);
-                    }else if(mContext.getResources().getBoolean(R.bool.is_rgk_support_bgicon)){
+                    }else if(mThemedIcons != null){
                            if(packageName.contains("com.google") ||packageName.equals("com.android.vending")
 			||packageName.equals("com.android.chrome")){
-				entry.icon = Utilities.createIconBitmapWithFrame(appInfo.loadIcon(mPackageManager),mContext);
+				entry.icon = mThemedIcons.createFramedIcon(appInfo.loadIcon(mPackageManager), mContext);
                   }else{
-                 	    entry.icon = Utilities.createIconBitmapWithMask(appInfo.loadIcon(mPackageManager), maskBitmap, bgBitmap, mContext);
+                 	    entry.icon = mThemedIcons.createMaskedIcon(appInfo.loadIcon(mPackageManager), mContext);
                   	}
 	            }else{
                         entry.icon = Utilities.createBadgedIconBitmap(
@@ -733,6 +903,7 @@ public class IconCache {
                     //Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(end)
                     entry.title = appInfo.loadLabel(mPackageManager);
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+                    entry.titleState = getSystemState();
                     entry.isLowResIcon = false;
 
                     // Add the icon in the DB here, since these do not get written during
@@ -789,23 +960,18 @@ public class IconCache {
     private boolean getEntryFromDB(ComponentKey cacheKey, CacheEntry entry, boolean lowRes) {
         Cursor c = null;
         try {
+            String component = cacheKey.componentName.flattenToString();
+            long userSerial = mUserManager.getSerialNumberForUser(cacheKey.user);
             c = mIconDb.query(
                 new String[]{lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
-                        IconDB.COLUMN_LABEL},
+                        IconDB.COLUMN_LABEL, IconDB.COLUMN_SYSTEM_STATE,
+                        IconDB.COLUMN_SORT_KEY, IconDB.COLUMN_SECTION_NAME},
                 IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[]{cacheKey.componentName.flattenToString(),
-                        Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user))});
+                new String[]{component, Long.toString(userSerial)});
             if (c.moveToNext()) {
-                entry.icon = loadIconNoResize(c, 0, lowRes ? mLowResOptions : null);
+                entry.icon = loadIcon(component, userSerial, lowRes, c.getBlob(0));
                 entry.isLowResIcon = lowRes;
-                entry.title = c.getString(1);
-                if (entry.title == null) {
-                    entry.title = "";
-                    entry.contentDescription = "";
-                } else {
-                    entry.contentDescription = mUserManager.getBadgedLabelForUser(
-                            entry.title, cacheKey.user);
-                }
+                readTitleFromDB(c, entry, cacheKey.user);
                 return true;
             }
         } catch (SQLiteException e) {
@@ -818,6 +984,139 @@ public class IconCache {
         return false;
     }
 
+    /**
+     * Reads the label, system state, sort key and section name of the entry, from the columns
+     * following the icon column.
+     */
+    private void readTitleFromDB(Cursor c, CacheEntry entry, UserHandleCompat user) {
+        entry.title = c.getString(1);
+        entry.titleState = c.getString(2);
+        entry.titleSortKey = c.getBlob(3);
+        entry.titleSectionName = c.getString(4);
+        if (entry.titleSectionName == null) {
+            entry.titleSortKey = null;
+        }
+        if (entry.title == null) {
+            entry.title = "";
+            entry.contentDescription = "";
+        } else {
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
+        }
+    }
+
+    /**
+     * Loads the DB entries of the given components in the memory cache, so that the loader does
+     * not look them up one at a time. The rows are read in a single query, and their icons are
+     * decoded in parallel. Components which already have a suitable entry in the memory cache,
+     * or no row in the DB, are left to {@link #cacheLocked}.
+     */
+    public void preloadEntries(Collection<ComponentName> components, UserHandleCompat user,
+            boolean useLowResIcon) {
+        ArrayList<String> keys = new ArrayList<>(components.size());
+        for (ComponentName cn : components) {
+            // The calendar icon is rendered for the current day.
+            if (isDynamCalender && cn.getPackageName().equals(CALENDAR_PACKAGE_NAME)) {
+                continue;
+            }
+            ComponentKey key = new ComponentKey(cn, user);
+            synchronized (mCache.getLock(key)) {
+                CacheEntry entry = mCache.get(key);
+                if (entry != null && (!entry.isLowResIcon || useLowResIcon)) {
+                    continue;
+                }
+            }
+            keys.add(cn.flattenToString());
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        final long userSerial = mUserManager.getSerialNumberForUser(user);
+        ArrayList<PreloadedEntry> batch = new ArrayList<>(PRELOAD_BATCH_SIZE);
+        Cursor c = null;
+        try {
+            c = mIconDb.query(
+                    new String[]{useLowResIcon ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
+                            IconDB.COLUMN_LABEL, IconDB.COLUMN_SYSTEM_STATE,
+                            IconDB.COLUMN_SORT_KEY, IconDB.COLUMN_SECTION_NAME,
+                            IconDB.COLUMN_COMPONENT},
+                    IconDB.COLUMN_COMPONENT, keys, IconDB.COLUMN_USER + " = ?",
+                    new String[]{Long.toString(userSerial)});
+            while (c.moveToNext()) {
+                String component = c.getString(5);
+                ComponentName cn = ComponentName.unflattenFromString(component);
+                byte[] data = c.getBlob(0);
+                if (cn == null || data == null) {
+                    continue;
+                }
+                PreloadedEntry preloaded =
+                        new PreloadedEntry(new ComponentKey(cn, user), component, data);
+                preloaded.entry.isLowResIcon = useLowResIcon;
+                readTitleFromDB(c, preloaded.entry, user);
+                if (TextUtils.isEmpty(preloaded.entry.title)) {
+                    // The label is resolved when the entry is first used.
+                    continue;
+                }
+                if (preloaded.entry.titleSortKey == null) {
+                    updateTitleSortKey(preloaded.entry);
+                }
+                batch.add(preloaded);
+
+                // Decode while reading, so that only a few blobs are held at a time.
+                if (batch.size() == PRELOAD_BATCH_SIZE) {
+                    cachePreloadedEntries(batch, userSerial, useLowResIcon);
+                    batch.clear();
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Error reading icon cache", e);
+            // Continue with whatever we have read so far
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        cachePreloadedEntries(batch, userSerial, useLowResIcon);
+    }
+
+    private void cachePreloadedEntries(final ArrayList<PreloadedEntry> batch,
+            final long userSerial, final boolean lowRes) {
+        IconRenderExecutor.runInParallel(batch.size(), new IndexedTask() {
+            @Override
+            public void run(int index) {
+                PreloadedEntry preloaded = batch.get(index);
+                preloaded.entry.icon = loadIcon(
+                        preloaded.component, userSerial, lowRes, preloaded.data);
+                if (preloaded.entry.icon == null) {
+                    return;
+                }
+                synchronized (mCache.getLock(preloaded.key)) {
+                    // Do not replace an entry added since the query.
+                    CacheEntry entry = mCache.get(preloaded.key);
+                    if (entry == null || (entry.isLowResIcon && !lowRes)) {
+                        mCache.put(preloaded.key, preloaded.entry);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A row read by {@link #preloadEntries}, whose icon is not decoded yet.
+     */
+    private static class PreloadedEntry {
+        final ComponentKey key;
+        final String component;
+        final byte[] data;
+        final CacheEntry entry = new CacheEntry();
+
+        PreloadedEntry(ComponentKey key, String component, byte[] data) {
+            this.key = key;
+            this.component = component;
+            this.data = data;
+        }
+    }
+
     public static class IconLoadRequest {
         private final Runnable mRunnable;
         private final Handler mHandler;
@@ -838,7 +1137,7 @@ public class IconCache {
      * worker thread doesn't get blocked.
      */
     @Thunk class SerializedIconUpdateTask implements Runnable {
-        private final long mUserSerial;
+        @Thunk final long mUserSerial;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
         private final Stack<LauncherActivityInfoCompat> mAppsToAdd;
         private final Stack<LauncherActivityInfoCompat> mAppsToUpdate;
@@ -855,14 +1154,28 @@ public class IconCache {
 
         @Override
         public void run() {
+            // Each run handles a few apps, rendered in parallel and written to the DB in a
+            // single transaction.
             if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfoCompat app = mAppsToUpdate.pop();
-                String cn = app.getComponentName().flattenToString();
-                ContentValues values = updateCacheAndGetContentValues(app, true);
-                mIconDb.update(values,
+                final ArrayList<LauncherActivityInfoCompat> apps = new ArrayList<>();
+                ArrayList<String[]> whereArgsList = new ArrayList<>();
+                while (!mAppsToUpdate.isEmpty() && apps.size() < ICON_UPDATE_BATCH_SIZE) {
+                    LauncherActivityInfoCompat app = mAppsToUpdate.pop();
+                    String cn = app.getComponentName().flattenToString();
+                    apps.add(app);
+                    whereArgsList.add(new String[]{cn, Long.toString(mUserSerial)});
+                    mUpdatedPackages.add(app.getComponentName().getPackageName());
+                }
+                final ContentValues[] values = new ContentValues[apps.size()];
+                IconRenderExecutor.runInParallel(values.length, new IndexedTask() {
+                    @Override
+                    public void run(int index) {
+                        values[index] = updateCacheAndGetContentValues(apps.get(index), true);
+                    }
+                });
+                mIconDb.update(Arrays.asList(values),
                         IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
-                        new String[]{cn, Long.toString(mUserSerial)});
-                mUpdatedPackages.add(app.getComponentName().getPackageName());
+                        whereArgsList);
 
                 if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
                     // No more app to update. Notify model.
@@ -873,13 +1186,25 @@ public class IconCache {
                 // Let it run one more time.
                 scheduleNext();
             } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfoCompat app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                if (info != null) {
-                    synchronized (IconCache.this) {
-                        addIconToDBAndMemCache(app, info, mUserSerial);
+                final ArrayList<LauncherActivityInfoCompat> apps = new ArrayList<>();
+                final ArrayList<PackageInfo> infos = new ArrayList<>();
+                while (!mAppsToAdd.isEmpty() && apps.size() < ICON_UPDATE_BATCH_SIZE) {
+                    LauncherActivityInfoCompat app = mAppsToAdd.pop();
+                    PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
+                    if (info != null) {
+                        apps.add(app);
+                        infos.add(info);
                     }
                 }
+                final ContentValues[] values = new ContentValues[apps.size()];
+                IconRenderExecutor.runInParallel(values.length, new IndexedTask() {
+                    @Override
+                    public void run(int index) {
+                        values[index] = getValuesForDBAndMemCache(
+                                apps.get(index), infos.get(index), mUserSerial);
+                    }
+                });
+                mIconDb.insertOrReplace(Arrays.asList(values));
 
                 if (!mAppsToAdd.isEmpty()) {
                     scheduleNext();
@@ -893,11 +1218,23 @@ public class IconCache {
     }
 
     private void updateSystemStateString() {
-        mSystemState = Locale.getDefault().toString();
+        Locale locale = Locale.getDefault();
+        mSystemState = locale.toString();
+        mSystemLocale = locale;
+    }
+
+    /**
+     * Returns the current system state, updating it first if the locale has changed.
+     */
+    private String getSystemState() {
+        if (!Locale.getDefault().equals(mSystemLocale)) {
+            updateSystemStateString();
+        }
+        return mSystemState;
     }
 
     private static final class IconDB extends SQLiteCacheHelper {
-        private final static int DB_VERSION = 7;
+        private final static int DB_VERSION = 8;
 
         private final static int RELEASE_VERSION = DB_VERSION +
                 (FeatureFlags.LAUNCHER3_ICON_NORMALIZATION ? 1 : 0);
@@ -912,6 +1249,8 @@ public class IconCache {
         private final static String COLUMN_ICON_LOW_RES = "icon_low_res";
         private final static String COLUMN_LABEL = "label";
         private final static String COLUMN_SYSTEM_STATE = "system_state";
+        private final static String COLUMN_SORT_KEY = "sort_key";
+        private final static String COLUMN_SECTION_NAME = "section_name";
 
         public IconDB(Context context, int iconPixelSize) {
             super(context, LauncherFiles.APP_ICONS_DB,
@@ -930,6 +1269,8 @@ public class IconCache {
                     COLUMN_ICON_LOW_RES + " BLOB, " +
                     COLUMN_LABEL + " TEXT, " +
                     COLUMN_SYSTEM_STATE + " TEXT, " +
+                    COLUMN_SORT_KEY + " BLOB, " +
+                    COLUMN_SECTION_NAME + " TEXT, " +
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
                     ");");
         }
@@ -940,7 +1281,7 @@ public class IconCache {
         values.put(IconDB.COLUMN_ICON, Utilities.flattenBitmap(icon));
 
         values.put(IconDB.COLUMN_LABEL, label);
-        values.put(IconDB.COLUMN_SYSTEM_STATE, mSystemState);
+        values.put(IconDB.COLUMN_SYSTEM_STATE, getSystemState());
 
         if (lowResBackgroundColor == Color.TRANSPARENT) {
           values.put(IconDB.COLUMN_ICON_LOW_RES, Utilities.flattenBitmap(
@@ -965,8 +1306,38 @@ public class IconCache {
         return values;
     }
 
-    private static Bitmap loadIconNoResize(Cursor c, int iconIndex, BitmapFactory.Options options) {
-        byte[] data = c.getBlob(iconIndex);
+    /**
+     * Returns the icon of a DB row, copied from the icon atlas when it has the icon of this blob,
+     * and decoded otherwise.
+     */
+    @Thunk Bitmap loadIcon(String component, long userSerial, boolean lowRes, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (mIconAtlas == null) {
+            return decodeIcon(data, lowRes);
+        }
+        String key = component + "#" + userSerial + (lowRes ? "#low_res" : "");
+        Bitmap icon = mIconAtlas.get(key, data);
+        if (icon == null) {
+            icon = decodeIcon(data, lowRes);
+            if (icon != null) {
+                mIconAtlas.put(key, data, icon);
+            }
+        }
+        return icon;
+    }
+
+    private static Bitmap decodeIcon(byte[] data, boolean lowRes) {
+        BitmapFactory.Options options = null;
+        if (lowRes) {
+            // Icons are decoded on several threads, and the decoder writes to its options, so
+            // they are not shared.
+            options = new BitmapFactory.Options();
+            // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
+            // automatically be loaded as ALPHA_8888.
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
         try {
             return BitmapFactory.decodeByteArray(data, 0, data.length, options);
         } catch (Exception e) {
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.graphics.Bitmap;
+
+import com.android.launcher3.IconCache.CacheEntry;
+import com.android.launcher3.compat.UserHandleCompat;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory store for the {@link IconCache} entries.
+ *
+ * The entries are split in stripes by package and user, so that lookups for different apps never
+ * contend on the same lock, while an activity and its package fallback entry always share one.
+ * Callers must hold {@link #getLock} for the key they are working on.
+ *
+ * When created with a byte budget, every stripe keeps its entries in access order and trims
+ * itself to its share of the budget: least recently used full-res icons are first replaced by
+ * their low-res variant, and then dropped altogether.
+ */
+class IconMemoryCache {
+
+    private static final int STRIPE_COUNT = 16;
+    private static final int INITIAL_STRIPE_CAPACITY = 8;
+
+    private final Stripe[] mStripes = new Stripe[STRIPE_COUNT];
+    private final long mStripeBudget;
+
+    /**
+     * @param maxBytes the maximum size of the cached bitmaps, or 0 for an unbounded cache.
+     */
+    IconMemoryCache(long maxBytes) {
+        mStripeBudget = maxBytes > 0 ? Math.max(1, maxBytes / STRIPE_COUNT) : 0;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Stripe(mStripeBudget > 0);
+        }
+    }
+
+    /**
+     * Returns the lock guarding the entries for the given package.
+     */
+    Object getLock(String packageName, UserHandleCompat user) {
+        return getStripe(packageName, user);
+    }
+
+    Object getLock(ComponentKey key) {
+        return getStripe(key.componentName.getPackageName(), key.user);
+    }
+
+    CacheEntry get(ComponentKey key) {
+        return getStripe(key).entries.get(key);
+    }
+
+    /**
+     * Adds the entry to the cache. The entry must be fully loaded, as its size is only accounted
+     * for at this point.
+     */
+    void put(ComponentKey key, CacheEntry entry) {
+        Stripe stripe = getStripe(key);
+        CacheEntry old = stripe.entries.put(key, entry);
+        stripe.size += sizeOf(entry) - sizeOf(old);
+        if (mStripeBudget > 0) {
+            trimToBudget(stripe);
+        }
+    }
+
+    void remove(ComponentKey key) {
+        Stripe stripe = getStripe(key);
+        stripe.size -= sizeOf(stripe.entries.remove(key));
+    }
+
+    /**
+     * Removes all the entries for the given package.
+     */
+    void removePackage(String packageName, UserHandleCompat user) {
+        Stripe stripe = getStripe(packageName, user);
+        Iterator<Map.Entry<ComponentKey, CacheEntry>> it = stripe.entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ComponentKey, CacheEntry> e = it.next();
+            ComponentKey key = e.getKey();
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                stripe.size -= sizeOf(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the cached bitmaps, in bytes.
+     */
+    long getSizeInBytes() {
+        long size = 0;
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns a low-res version of the icon of an entry being evicted, or null if the entry
+     * should be removed instead.
+     */
+    protected Bitmap createLowResIcon(CacheEntry entry) {
+        return null;
+    }
+
+    private void trimToBudget(Stripe stripe) {
+        if (stripe.size <= mStripeBudget) {
+            return;
+        }
+
+        // First downgrade the least recently used full-res icons, keeping the most recent one.
+        ArrayList<ComponentKey> toRemove = new ArrayList<>();
+        int remaining = stripe.entries.size();
+        for (Map.Entry<ComponentKey, CacheEntry> e : stripe.entries.entrySet()) {
+            if (stripe.size <= mStripeBudget || --remaining <= 0) {
+                break;
+            }
+            CacheEntry entry = e.getValue();
+            if (entry.isLowResIcon || entry.icon == null) {
+                continue;
+            }
+            long oldSize = sizeOf(entry);
+            Bitmap lowRes = createLowResIcon(entry);
+            if (lowRes != null) {
+                entry.icon = lowRes;
+                entry.isLowResIcon = true;
+                stripe.size += sizeOf(entry) - oldSize;
+            } else {
+                toRemove.add(e.getKey());
+                stripe.size -= oldSize;
+            }
+        }
+        for (ComponentKey key : toRemove) {
+            stripe.entries.remove(key);
+        }
+
+        // Then drop whole entries, still keeping the most recent one.
+        Iterator<CacheEntry> it = stripe.entries.values().iterator();
+        while (stripe.size > mStripeBudget && stripe.entries.size() > 1 && it.hasNext()) {
+            stripe.size -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    private Stripe getStripe(ComponentKey key) {
+        return getStripe(key.componentName.getPackageName(), key.user);
+    }
+
+    private Stripe getStripe(String packageName, UserHandleCompat user) {
+        int hash = 31 * packageName.hashCode() + user.hashCode();
+        // Spread the higher bits, as package names often share a long common prefix.
+        hash ^= (hash >>> 16);
+        return mStripes[(hash & 0x7fffffff) % STRIPE_COUNT];
+    }
+
+    private static long sizeOf(CacheEntry entry) {
+        return entry == null || entry.icon == null ? 0 : entry.icon.getByteCount();
+    }
+
+    private static class Stripe {
+        final LinkedHashMap<ComponentKey, CacheEntry> entries;
+        long size;
+
+        Stripe(boolean accessOrder) {
+            entries = new LinkedHashMap<>(INITIAL_STRIPE_CAPACITY, 0.75f, accessOrder);
+        }
+    }
+}
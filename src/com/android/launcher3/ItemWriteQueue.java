@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.launcher3.util.Thunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Write-behind queue for the favorites table.
+ *
+ * Writes made on the UI thread are collected until the current UI message is handled, and then
+ * applied on the worker thread in a single transaction. Successive updates of the same item from
+ * the same thread are merged into one. Writes made on the worker thread are applied right away,
+ * on their own, as the pending writes were queued after the running work was posted.
+ *
+ * Pending writes are posted to the worker thread by {@link #postPendingWrites()}, which has to be
+ * called before posting any other work to the worker thread, so the work sees the writes made
+ * before it was posted.
+ */
+class ItemWriteQueue {
+    private static final String TAG = "ItemWriteQueue";
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_UPDATE = 1;
+    private static final int OP_DELETE = 2;
+    // Only runs the callbacks of an update merged into an earlier one, at the position of the
+    // update.
+    private static final int OP_CALLBACKS = 3;
+
+    private final Handler mWorker;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Object mLock = new Object();
+    // The following are guarded by mLock.
+    private ArrayList<Op> mPendingOps = new ArrayList<>();
+    // Last pending op of each item, when it is an update.
+    private final HashMap<Long, Op> mPendingUpdates = new HashMap<>();
+    private ContentResolver mResolver;
+    private boolean mPostScheduled;
+
+    private final Runnable mPostPendingWrites = new Runnable() {
+        @Override
+        public void run() {
+            postPendingWrites();
+        }
+    };
+
+    ItemWriteQueue(Handler worker) {
+        mWorker = worker;
+    }
+
+    /**
+     * Inserts the item, the values must contain its id.
+     */
+    void insert(ContentResolver cr, long itemId, ContentValues values, Runnable onApplied) {
+        enqueue(cr, new Op(OP_INSERT, itemId, values, onApplied));
+    }
+
+    void update(ContentResolver cr, long itemId, ContentValues values, Runnable onApplied) {
+        enqueue(cr, new Op(OP_UPDATE, itemId, values, onApplied));
+    }
+
+    void delete(ContentResolver cr, long itemId, Runnable onApplied) {
+        enqueue(cr, new Op(OP_DELETE, itemId, null, onApplied));
+    }
+
+    private void enqueue(ContentResolver cr, Op op) {
+        if (Looper.myLooper() == mWorker.getLooper()) {
+            ArrayList<Op> ops = new ArrayList<>(1);
+            ops.add(op);
+            apply(cr, ops);
+            return;
+        }
+        synchronized (mLock) {
+            mResolver = cr;
+            Op pendingUpdate = op.type == OP_UPDATE ? mPendingUpdates.get(op.itemId) : null;
+            if (pendingUpdate != null && pendingUpdate.thread == op.thread) {
+                // Updates of other items in between do not affect this row.
+                pendingUpdate.values.putAll(op.values);
+                if (!op.callbacks.isEmpty()) {
+                    mPendingOps.add(new Op(OP_CALLBACKS, op.itemId, null, op.callbacks));
+                }
+            } else {
+                mPendingOps.add(op);
+                if (op.type == OP_UPDATE) {
+                    mPendingUpdates.put(op.itemId, op);
+                } else {
+                    mPendingUpdates.remove(op.itemId);
+                }
+            }
+            if (!mPostScheduled) {
+                mPostScheduled = true;
+                mMainHandler.post(mPostPendingWrites);
+            }
+        }
+    }
+
+    /**
+     * Posts the pending writes to the worker thread, ahead of anything posted after this call.
+     */
+    void postPendingWrites() {
+        final ArrayList<Op> ops;
+        final ContentResolver cr;
+        synchronized (mLock) {
+            ops = takePendingOpsLocked();
+            cr = mResolver;
+        }
+        if (ops != null) {
+            mWorker.post(new Runnable() {
+                @Override
+                public void run() {
+                    apply(cr, ops);
+                }
+            });
+        }
+    }
+
+    private ArrayList<Op> takePendingOpsLocked() {
+        mPostScheduled = false;
+        if (mPendingOps.isEmpty()) {
+            return null;
+        }
+        ArrayList<Op> ops = mPendingOps;
+        mPendingOps = new ArrayList<>();
+        mPendingUpdates.clear();
+        return ops;
+    }
+
+    @Thunk static void apply(ContentResolver cr, ArrayList<Op> ops) {
+        final int count = ops.size();
+        if (count == 1) {
+            ops.get(0).applySingle(cr);
+        } else {
+            ArrayList<ContentProviderOperation> cpOps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (ops.get(i).type != OP_CALLBACKS) {
+                    cpOps.add(ops.get(i).build());
+                }
+            }
+            try {
+                cr.applyBatch(LauncherProvider.AUTHORITY, cpOps);
+            } catch (Exception e) {
+                // The transaction was rolled back, apply the writes one by one so that a single
+                // failed write does not drop the others.
+                Log.e(TAG, "Failed to apply " + count + " writes in one transaction", e);
+                for (int i = 0; i < count; i++) {
+                    ops.get(i).applySingle(cr);
+                }
+            }
+        }
+
+        // Update the model after the db operations, in order.
+        for (int i = 0; i < count; i++) {
+            ops.get(i).onApplied();
+        }
+    }
+
+    private static class Op {
+        final int type;
+        final long itemId;
+        final ContentValues values;
+        final Thread thread = Thread.currentThread();
+        final ArrayList<Runnable> callbacks = new ArrayList<>(1);
+
+        Op(int type, long itemId, ContentValues values, Runnable onApplied) {
+            this.type = type;
+            this.itemId = itemId;
+            // Updates are copied, as they can be merged with later ones.
+            this.values = type == OP_UPDATE ? new ContentValues(values) : values;
+            if (onApplied != null) {
+                callbacks.add(onApplied);
+            }
+        }
+
+        Op(int type, long itemId, ContentValues values, ArrayList<Runnable> callbacks) {
+            this(type, itemId, values, (Runnable) null);
+            this.callbacks.addAll(callbacks);
+        }
+
+        ContentProviderOperation build() {
+            switch (type) {
+                case OP_INSERT:
+                    return ContentProviderOperation
+                            .newInsert(LauncherSettings.Favorites.CONTENT_URI)
+                            .withValues(values).build();
+                case OP_UPDATE:
+                    return ContentProviderOperation
+                            .newUpdate(LauncherSettings.Favorites.getContentUri(itemId))
+                            .withValues(values).build();
+                default:
+                    return ContentProviderOperation
+                            .newDelete(LauncherSettings.Favorites.getContentUri(itemId)).build();
+            }
+        }
+
+        void applySingle(ContentResolver cr) {
+            switch (type) {
+                case OP_INSERT:
+                    cr.insert(LauncherSettings.Favorites.CONTENT_URI, values);
+                    break;
+                case OP_UPDATE:
+                    cr.update(LauncherSettings.Favorites.getContentUri(itemId), values, null, null);
+                    break;
+                case OP_DELETE:
+                    cr.delete(LauncherSettings.Favorites.getContentUri(itemId), null, null);
+                    break;
+            }
+        }
+
+        void onApplied() {
+            for (Runnable r : callbacks) {
+                r.run();
+            }
+        }
+    }
+}
@@ -175,10 +175,8 @@ import android.view.animation.AccelerateDecelerateInterpolator;
 import android.support.annotation.NonNull;
 import com.android.launcher3.projector.ShimmerTextView;
 import android.telephony.TelephonyManager;
-import android.database.Cursor;
 import com.android.launcher3.projector.CircleImageView;
 import android.media.ThumbnailUtils;
-import android.provider.MediaStore;
 import android.content.ContentResolver;
 //add by luoran for rgk MHL(end)
 /**
@@ -187,7 +185,7 @@ import android.content.ContentResolver;
 public class Launcher extends Activity
         implements View.OnClickListener, OnLongClickListener, LauncherModel.Callbacks,
                    View.OnTouchListener, PageSwitchListener, LauncherProviderChangeListener,
-                   MTKUnreadLoader.UnreadCallbacks {
+                   MTKUnreadLoader.UnreadCallbacks, ProjectorMediaLoader.Callbacks {
     static final String TAG = "Launcher";
     static final boolean LOGD = false;
 
@@ -394,7 +392,7 @@ public class Launcher extends Activity
     private View mSettings;
     private View projector_tip;
     private List<FileData> mFileDatas;
-    private ContentObserver fileDataObserver;
+    private ProjectorMediaLoader mProjectorMediaLoader;
     private View subDocMore;
     private View subGalleryMore;
     private CircleImageView subGallery;
@@ -402,10 +400,7 @@ public class Launcher extends Activity
     private CircleImageView subGallery2;
     private SubActionButton galleryMenu;
     private SubActionButton docMenu;
-    private ContentObserver galleryDataObserver;
     private FrameLayout.LayoutParams subGalleryParams;
-    private ArrayList<String> mPictures;
-    private ArrayList<Long> mPictureIds;
     //add by luoran for rgk MHL(end)
     private LauncherClings mClings;
 
@@ -525,6 +520,10 @@ public class Launcher extends Activity
     private boolean mBindingWorkspaceFinished = false;
     public boolean mBindingAppsFinished = false;
     private MTKUnreadLoader mUnreadLoader = null;
+    // Unread numbers received since the last bind, keyed by component. Guarded by itself.
+    private final HashMap<ComponentName, Integer> mPendingUnreadChanges =
+            new HashMap<ComponentName, Integer>();
+    private boolean mUnreadBindScheduled = false;
     //add unread feature by zhaopenglin DWEQLSY-351 end
     /// M: If workspcae no initialized, save last restore workspace screen.
     private int mCurrentWorkSpaceScreen = PagedView.INVALID_RESTORE_PAGE;
@@ -2430,12 +2429,10 @@ public class Launcher extends Activity
         //add by luoran for rgk mhl(start)
         if(getResources().getBoolean(R.bool.is_support_mhl)){
             getContentResolver().unregisterContentObserver(mHdmiSettingsObserver);
-            if(fileDataObserver!=null){
-            getContentResolver().unregisterContentObserver(fileDataObserver);
+            if (mProjectorMediaLoader != null) {
+                mProjectorMediaLoader.destroy();
+                mProjectorMediaLoader = null;
             }
-            if (galleryDataObserver != null) {
-            getContentResolver().unregisterContentObserver(galleryDataObserver);
-        }
         }
         //add by luoran for rgk mhl(start)
         mDragLayer.clearAllResizeFrames();
@@ -3927,6 +3924,9 @@ public class Launcher extends Activity
 
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
+
+            // Drop the decoded widget previews which are not shown.
+            LauncherAppState.getInstance().getWidgetCache().trimMemory();
         }
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
@@ -4605,70 +4605,18 @@ public class Launcher extends Activity
         return isInCall;
     }
 
-    private static final String FILE_FOR_LAUNCHER[] = {"doc","docx","ppt","pptx","xls","xlsx","pdf"};
-
-    public void getAllFileOpenHisDatas() {
-        if (mFileDatas == null) {
-            mFileDatas = new ArrayList<>();
-        }
-        //String URL = "content://com.gofilemanager.openhistoryprov/openhistorydatas";
-        //Uri uri = MediaStore.Files.getContentUri("external");
-        Uri ophisFile = MediaStore.Files.getContentUri("external");
-        String selection = "mime_type LIKE 'text/%' OR mime_type = 'application/pdf' OR mime_type =" +
-                " 'application/msword' OR mime_type = 'application/vnd.openxmlformats-officedocument.wordprocessingml.document' OR mime_type =" +
-                " 'application/vnd.ms-powerpoint' OR mime_type = 'application/vnd.openxmlformats-officedocument.presentationml.presentation' OR mime_type =" +
-                " 'application/vnd.ms-excel' OR mime_type = 'application/vnd.openxmlformats-officedocument.spreadsheetml.sheet'";
-        Cursor c = getContentResolver().query(ophisFile, null, selection, null, MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC");
-        try {
-            if (c == null) {
-                Log.e(TAG, "getAllFileOpenHisDatas: cannot get cursor for file");
-            } else {
-                mFileDatas.clear();
-                int count = 0;
-                while (c.moveToNext()){
-                    String filePath = c.getString(c.getColumnIndex(MediaStore.Files.FileColumns.DATA));
-                    if (!new File(filePath).exists()) {// seem not needed since add scanPathforMediaStore method
-                        continue;
-                    }
-                    // if (filePath.contains("/.") && !SharedPreferencesUtil.isShowHidenFiles(mContext)) {
-                    if (filePath.contains("/.")) {// never show the hide file or directory
-                        continue;
-                    }
-                    String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
-                    boolean isdoc = false;
-                    for (int i = 0; i < FILE_FOR_LAUNCHER.length; i++) {
-                        if(fileName.endsWith(FILE_FOR_LAUNCHER[i])){
-                            isdoc = true;
-                        }
-                    }
-                    if(!isdoc){
-                        continue;
-                    }
-                    FileData file = new FileData();
-                    /*file.setFilePath(c.getString(c.getColumnIndex("filePath")));
-                    file.setFileName(c.getString(c.getColumnIndex("fileName")));
-                    file.setTimestamp(c.getLong(c.getColumnIndex("timestamp")));
-                    file.setMimeType(c.getString(c.getColumnIndex("mimeType")));*/
-                    file.setFilePath(c.getString(c.getColumnIndex(MediaStore.Files.FileColumns.DATA)));
-                    file.setFileName(fileName);
-                    long updateTime = c.getLong(c.getColumnIndex(MediaStore.Files.FileColumns.DATE_MODIFIED));
-                    file.setTimestamp(updateTime * 1000L);
-                    file.setMimeType(c.getString(c.getColumnIndex(MediaStore.Files.FileColumns.MIME_TYPE)));
-                    mFileDatas.add(file);
-                    count++;
-                    if(count > 4){
-                        break;
-                    }
-                }
-                ;
-                c.close();
-            }
-        } catch (Exception e) {
-            if (c != null) {
-                c.close();
-            }
-            e.printStackTrace();
+    private ProjectorMediaLoader getProjectorMediaLoader() {
+        if (mProjectorMediaLoader == null) {
+            mProjectorMediaLoader = new ProjectorMediaLoader(this, this,
+                    getResources().getDimensionPixelOffset(R.dimen.dim48dp));
         }
+        return mProjectorMediaLoader;
+    }
+
+    @Override
+    public void bindProjectorDocuments(ArrayList<FileData> documents) {
+        mFileDatas = documents;
+        updateSubDocmenuContent();
     }
 
     public void openFile(FileData data) {
@@ -4783,10 +4731,6 @@ public class Launcher extends Activity
 
     @NonNull
     private SubActionButton setupDocMenu() {
-        getAllFileOpenHisDatas();
-
-        observerFileDataDb();
-
         docMenu = new SubActionButton();
         docMenu.setup(this, (FrameLayout) mProjectorContent, mDoc, mVideo, mGallery, mGame, mSettings);
 
@@ -4812,6 +4756,7 @@ public class Launcher extends Activity
         subDocMore.setLayoutParams(subParams);
 
         updateSubDocmenuContent();
+        getProjectorMediaLoader().startLoadingDocuments();
         subdoc.setVisibility(View.GONE);
         subdoc1.setVisibility(View.GONE);
         subdoc2.setVisibility(View.GONE);
@@ -4825,76 +4770,6 @@ public class Launcher extends Activity
         docMenu.addMainItem(mDoc);
         return docMenu;
     }
-    private void observerGalleryDataDb() {
-        galleryDataObserver = new ContentObserver(new Handler()) {
-            @Override
-            public void onChange(boolean selfChange) {
-                super.onChange(selfChange);
-
-                mHandler.removeCallbacks(mContentObserverChange);
-                mHandler.postDelayed(mContentObserverChange, 5000);
-
-                Log.d(TAG, "onChange: observerGalleryDataDb ");
-            }
-        };
-        getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, galleryDataObserver);
-    }
-    private class ContentObserverChanged implements Runnable{
-        @Override
-        public void run() {
-            Log.d(TAG, "run: ContentObserverChanged ");
-            updateSubGalleryContent();
-        }
-    }
-
-    private ContentObserverChanged mContentObserverChange = new ContentObserverChanged();
-
-    static final String[] PROJECTION = new String[] {
-            MediaStore.Images.ImageColumns._ID, MediaStore.Images.ImageColumns.DATA
-    };
-
-    static final int PROJECTION_DATA = 1;
-
-    public ArrayList<String> getAllPictures() {
-
-        if(mPictures == null){
-            mPictures = new ArrayList<>();
-        }
-        if(mPictureIds == null){
-            mPictureIds = new ArrayList<>();
-        }
-        boolean isEmpty = mPictures.isEmpty();
-        if(!isEmpty){
-            mPictures.clear();
-            mPictureIds.clear();
-        }
-//        ArrayList<String> pictureMaps = new ArrayList<>();
-        Cursor cursor = null;
-        try {
-            cursor = getContentResolver().query(
-                    MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                    PROJECTION, null, null, "_id DESC LIMIT 3");
-
-            if(cursor == null){
-                return null;
-            }
-
-            while (cursor.moveToNext()) {
-                String dir = cursor.getString(PROJECTION_DATA);
-                mPictures.add(dir);
-                mPictureIds.add(cursor.getLong(0));
-            }
-        } catch (SecurityException e) {
-            e.printStackTrace();
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-
-        return mPictures;
-    }
-
     public int calculateInSampleSize(BitmapFactory.Options options,
                                             int reqWidth, int reqHeight) {
         final int height = options.outHeight;
@@ -4938,9 +4813,6 @@ public class Launcher extends Activity
     }
 
     private SubActionButton setupGalleryMenu() {
-
-        observerGalleryDataDb();
-
         galleryMenu = new SubActionButton();
         galleryMenu.setup(this, (FrameLayout) mProjectorContent, mDoc, mVideo, mGallery, mGame, mSettings);
 
@@ -4962,7 +4834,7 @@ public class Launcher extends Activity
         subGallery2.setLayoutParams(subGalleryParams);
         subGalleryMore.setLayoutParams(subGalleryParams);
 
-        updateSubGalleryContent();
+        getProjectorMediaLoader().startLoadingPictures();
         subGallery.setVisibility(View.GONE);
         subGallery1.setVisibility(View.GONE);
         subGallery2.setVisibility(View.GONE);
@@ -4977,60 +4849,22 @@ public class Launcher extends Activity
         return galleryMenu;
     }
 
-    public void updateSubGalleryContent() {
-        getAllPictures();
-        FrameLayout.LayoutParams subParams = subGalleryParams;
-        if(subParams == null || mPictures == null || mPictures.isEmpty() || mPictureIds == null || mPictureIds.isEmpty()){
+    @Override
+    public void bindProjectorPictures(ArrayList<GalleryData> pictures,
+            ArrayList<Bitmap> thumbnails) {
+        if (subGalleryParams == null || pictures.isEmpty()) {
             return;
         }
 
-        if(mPictures.size() == 0){
-            subGallery.setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
-            subGallery1.setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
-            subGallery2.setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
-            subGallery.setTag(null);
-            subGallery1.setTag(null);
-            subGallery2.setTag(null);
-            return;
-        }
-        String picture;
-        for (int i = 0; i < mPictures.size(); i++) {
-            if(i > 3){
-                break;
+        CircleImageView[] views = {subGallery, subGallery1, subGallery2};
+        for (int i = 0; i < views.length; i++) {
+            if (i < pictures.size()) {
+                views[i].setImageBitmap(thumbnails.get(i));
+                views[i].setTag(pictures.get(i));
+            } else {
+                views[i].setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
+                views[i].setTag(null);
             }
-            picture = mPictures.get(i);
-            GalleryData galleryData = new GalleryData();
-            if(i == 0){
-//                subGallery.setImageBitmap(getImageThumbnail(picture, subParams.width, subParams.height));
-                subGallery.setImageBitmap(MediaStore.Images.Thumbnails.getThumbnail(getContentResolver(), mPictureIds.get(i),
-                        MediaStore.Images.Thumbnails.MINI_KIND, null));
-                galleryData.setFilePath(picture);
-                subGallery.setTag(galleryData);
-            }else if(i == 1){
-//                subGallery1.setImageBitmap(getImageThumbnail(picture, subParams.width, subParams.height));
-                subGallery1.setImageBitmap(MediaStore.Images.Thumbnails.getThumbnail(getContentResolver(), mPictureIds.get(i),
-                        MediaStore.Images.Thumbnails.MINI_KIND, null));
-                galleryData.setFilePath(picture);
-                subGallery1.setTag(galleryData);
-            }else if(i == 2){
-//                subGallery2.setImageBitmap(getImageThumbnail(picture, subParams.width, subParams.height));
-                subGallery2.setImageBitmap(MediaStore.Images.Thumbnails.getThumbnail(getContentResolver(), mPictureIds.get(i),
-                        MediaStore.Images.Thumbnails.MINI_KIND, null));
-                galleryData.setFilePath(picture);
-                subGallery2.setTag(galleryData);
-            }
-        }
-        switch (mPictures.size()){
-            case 1 :
-                subGallery1.setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
-                subGallery2.setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
-                subGallery1.setTag(null);
-                subGallery2.setTag(null);
-                break;
-            case 2 :
-                subGallery2.setImageDrawable(getResources().getDrawable(R.drawable.button_logo_homepage));
-                subGallery2.setTag(null);
-                break;
         }
     }
     private void setupMainMenu(boolean isLand) {
@@ -5198,31 +5032,6 @@ public class Launcher extends Activity
         }
     }
 
-     private void observerFileDataDb() {
-        //Uri uri = Uri.parse("content://com.gofilemanager.openhistoryprov/openhistorydatas");
-        Uri uri = MediaStore.Files.getContentUri("external");
-        fileDataObserver = new ContentObserver(new Handler()) {
-            @Override
-            public void onChange(boolean selfChange) {
-                super.onChange(selfChange);
-                mHandler.removeCallbacks(mFileContentObserverChange);
-                mHandler.postDelayed(mFileContentObserverChange, 5000);
-
-            }
-        };
-       getContentResolver().registerContentObserver(uri, true, fileDataObserver);
-    }
-
-    private class FileContentObserverChanged implements Runnable{
-        @Override
-        public void run() {
-            Log.d(TAG, "run: FileContentObserverChanged ");
-            getAllFileOpenHisDatas();
-            updateSubDocmenuContent();
-        }
-    }
-
-    private FileContentObserverChanged mFileContentObserverChange = new FileContentObserverChanged();
     private void updateProjectorSwitch() {
         if(!getHDMIStatus()){
             mProjectorOff.setVisibility(View.VISIBLE);
@@ -6729,29 +6538,50 @@ public class Launcher extends Activity
             LauncherLog.d(TAG, "bindComponentUnreadChanged: component = " + component
                     + ", unreadNum = " + unreadNum + ", this = " + this);
         }
+        // Apps tend to send bursts of updates, so only keep the latest number of each component
+        // and bind all of them at once on the next frame.
+        synchronized (mPendingUnreadChanges) {
+            mPendingUnreadChanges.put(component, unreadNum);
+            if (mUnreadBindScheduled) {
+                return;
+            }
+            mUnreadBindScheduled = true;
+        }
         // Post to message queue to avoid possible ANR.
-        mHandler.post(new Runnable() {
-            public void run() {
-                final long start = System.currentTimeMillis();
-                if (LauncherLog.DEBUG_PERFORMANCE) {
-                    LauncherLog.d(TAG, "bindComponentUnreadChanged begin: component = " + component
-                            + ", unreadNum = " + unreadNum + ", start = " + start);
-                }
-                if (mWorkspace != null) {
-                    mWorkspace.updateComponentUnreadChanged(component, unreadNum);
-                }
+        if (mDragLayer != null) {
+            mDragLayer.postOnAnimation(mBindPendingUnreadChanges);
+        } else {
+            mHandler.post(mBindPendingUnreadChanges);
+        }
+    }
 
-                if (mAppsView != null) {
-                    mAppsView.updateAppsUnreadChanged(component, unreadNum);
-                }
-                if (LauncherLog.DEBUG_PERFORMANCE) {
-                    LauncherLog.d(TAG, "bindComponentUnreadChanged end: current time = "
-                            + System.currentTimeMillis() + ", time used = "
-                            + (System.currentTimeMillis() - start));
-                }
+    private final Runnable mBindPendingUnreadChanges = new Runnable() {
+        public void run() {
+            final HashMap<ComponentName, Integer> changes;
+            synchronized (mPendingUnreadChanges) {
+                changes = new HashMap<ComponentName, Integer>(mPendingUnreadChanges);
+                mPendingUnreadChanges.clear();
+                mUnreadBindScheduled = false;
             }
-        });
-    }
+            final long start = System.currentTimeMillis();
+            if (LauncherLog.DEBUG_PERFORMANCE) {
+                LauncherLog.d(TAG, "bindComponentUnreadChanged begin: changes = " + changes
+                        + ", start = " + start);
+            }
+            if (mWorkspace != null) {
+                mWorkspace.updateComponentsUnreadChanged(changes);
+            }
+
+            if (mAppsView != null) {
+                mAppsView.updateAppsUnreadChanged(changes);
+            }
+            if (LauncherLog.DEBUG_PERFORMANCE) {
+                LauncherLog.d(TAG, "bindComponentUnreadChanged end: current time = "
+                        + System.currentTimeMillis() + ", time used = "
+                        + (System.currentTimeMillis() - start));
+            }
+        }
+    };
 
    /**
      * M: Bind shortcuts unread number if binding process has finished.
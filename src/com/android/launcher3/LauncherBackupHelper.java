@@ -48,6 +48,7 @@ import com.android.launcher3.backup.nano.BackupProtos.Favorite;
 import com.android.launcher3.backup.nano.BackupProtos.Journal;
 import com.android.launcher3.backup.nano.BackupProtos.Key;
 import com.android.launcher3.backup.nano.BackupProtos.Resource;
+import com.android.launcher3.backup.nano.BackupProtos.ResourceChecksum;
 import com.android.launcher3.backup.nano.BackupProtos.Screen;
 import com.android.launcher3.backup.nano.BackupProtos.Widget;
 import com.android.launcher3.compat.AppWidgetManagerCompat;
@@ -65,9 +66,17 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
 
 /**
@@ -91,6 +100,17 @@ public class LauncherBackupHelper implements BackupHelper {
     /** widgets contain previews, which are very large, dribble them out */
     private static final int MAX_WIDGETS_PER_PASS = 5;
 
+    /** icons and widgets are encoded off the backup thread, by a few threads at most */
+    private static final int MAX_ENCODE_THREADS = 2;
+    private static final ThreadPoolExecutor ENCODE_EXECUTOR = new ThreadPoolExecutor(
+            MAX_ENCODE_THREADS, MAX_ENCODE_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    static {
+        ENCODE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private static final long UNKNOWN_SOURCE_VERSION = -1;
+
     private static final String[] FAVORITE_PROJECTION = {
         Favorites._ID,                     // 0
         Favorites.MODIFIED,                // 1
@@ -140,14 +160,29 @@ public class LauncherBackupHelper implements BackupHelper {
 
     private static final int SCREEN_RANK_INDEX = 2;
 
+    private static final String[] ICON_PROJECTION = {
+        Favorites._ID,                     // 0
+        Favorites.INTENT,                  // 1
+    };
+
+    private static final int ICON_ID_INDEX = 0;
+    private static final int ICON_INTENT_INDEX = 1;
+
     @Thunk final Context mContext;
     private final HashSet<String> mExistingKeys;
     private final ArrayList<Key> mKeys;
+    // Checksums of the icons and widgets from the last backup, keyed by backup key.
+    private final HashMap<String, ResourceChecksum> mExistingChecksums;
+    // Checksums of the icons and widgets in mKeys.
+    private final ArrayList<ResourceChecksum> mChecksums;
+    // Last update time of the packages looked up during this backup pass.
+    private final HashMap<String, Long> mPackageVersions;
     private final ItemTypeMatcher[] mItemTypeMatchers;
     private final long mUserSerial;
 
     private BackupManager mBackupManager;
     private byte[] mBuffer = new byte[512];
+    private ByteBuffer mPixelBuffer;
     private long mLastBackupRestoreTime;
     private boolean mBackupDataWasUpdated;
 
@@ -169,6 +204,9 @@ public class LauncherBackupHelper implements BackupHelper {
         mContext = context;
         mExistingKeys = new HashSet<String>();
         mKeys = new ArrayList<Key>();
+        mExistingChecksums = new HashMap<>();
+        mChecksums = new ArrayList<>();
+        mPackageVersions = new HashMap<>();
         restoreSuccessful = true;
         mItemTypeMatchers = new ItemTypeMatcher[CommonAppTypeParser.SUPPORTED_TYPE_COUNT];
 
@@ -192,6 +230,12 @@ public class LauncherBackupHelper implements BackupHelper {
             }
         }
         restoredBackupVersion = journal.backupVersion;
+        mExistingChecksums.clear();
+        if (journal.resource != null) {
+            for (ResourceChecksum checksum : journal.resource) {
+                mExistingChecksums.put(checksum.key, checksum);
+            }
+        }
     }
 
     /**
@@ -227,6 +271,8 @@ public class LauncherBackupHelper implements BackupHelper {
 
         Log.v(TAG, "lastBackupTime = " + in.t);
         mKeys.clear();
+        mChecksums.clear();
+        mPackageVersions.clear();
         applyJournal(in);
 
         // Record the time before performing backup so that entries edited while the backup
@@ -424,6 +470,7 @@ public class LauncherBackupHelper implements BackupHelper {
         journal.appVersion = getAppVersion();
         journal.backupVersion = BACKUP_VERSION;
         journal.profile = mDeviceProfileData;
+        journal.resource = mChecksums.toArray(new ResourceChecksum[mChecksums.size()]);
         return journal;
     }
 
@@ -552,68 +599,87 @@ public class LauncherBackupHelper implements BackupHelper {
      * Write all the static icon resources we need to render placeholders
      * for a package that is not installed.
      *
+     * <P>Icons whose package was not updated since the last backup are kept as they are. Other
+     * icons are only written again if their checksum changed.
+     *
      * @param data output stream for key/value pairs
      */
     private void backupIcons(BackupDataOutput data) throws IOException {
-        // persist icons that haven't been persisted yet
+        // persist icons that haven't been persisted yet, or changed since
         final ContentResolver cr = mContext.getContentResolver();
         final int dpi = mContext.getResources().getDisplayMetrics().densityDpi;
         final UserHandleCompat myUserHandle = UserHandleCompat.myUserHandle();
-        int backupUpIconCount = 0;
+        final HashSet<String> seenKeys = new HashSet<String>();
+        final ArrayList<PendingRow> pendingRows = new ArrayList<PendingRow>();
 
         // Don't backup apps in other profiles for now.
         String where = "(" + Favorites.ITEM_TYPE + "=" + Favorites.ITEM_TYPE_APPLICATION + " OR " +
                 Favorites.ITEM_TYPE + "=" + Favorites.ITEM_TYPE_SHORTCUT + ") AND " +
                 getUserSelectionArg();
-        Cursor cursor = cr.query(Favorites.CONTENT_URI, FAVORITE_PROJECTION,
+        Cursor cursor = cr.query(Favorites.CONTENT_URI, ICON_PROJECTION,
                 where, null, null);
         try {
             cursor.moveToPosition(-1);
             while(cursor.moveToNext()) {
-                final long id = cursor.getLong(ID_INDEX);
-                final String intentDescription = cursor.getString(INTENT_INDEX);
+                final long id = cursor.getLong(ICON_ID_INDEX);
+                final String intentDescription = cursor.getString(ICON_INTENT_INDEX);
                 try {
                     Intent intent = Intent.parseUri(intentDescription, 0);
                     ComponentName cn = intent.getComponent();
-                    Key key = null;
-                    String backupKey = null;
-                    if (cn != null) {
-                        key = getKey(Key.ICON, cn.flattenToShortString());
-                        backupKey = keyToBackupKey(key);
-                    } else {
+                    if (cn == null) {
                         Log.w(TAG, "empty intent on application favorite: " + id);
+                        continue;
                     }
-                    if (mExistingKeys.contains(backupKey)) {
+                    Key key = getKey(Key.ICON, cn.flattenToShortString());
+                    String backupKey = keyToBackupKey(key);
+                    if (!seenKeys.add(backupKey)) {
+                        // Several favorites share this icon.
+                        continue;
+                    }
+
+                    boolean exists = mExistingKeys.contains(backupKey);
+                    ResourceChecksum old = mExistingChecksums.get(backupKey);
+                    long version = getPackageVersion(cn.getPackageName());
+                    if (exists && old != null && old.sourceVersion == version
+                            && version != UNKNOWN_SOURCE_VERSION) {
                         if (DEBUG) Log.d(TAG, "already saved icon " + backupKey);
+                        keepRow(key, old);
+                        continue;
+                    }
 
-                        // remember that we already backed this up previously
-                        mKeys.add(key);
-                    } else if (backupKey != null) {
-                        if (DEBUG) Log.d(TAG, "I can count this high: " + backupUpIconCount);
-                        if (backupUpIconCount < MAX_ICONS_PER_PASS) {
-                            if (DEBUG) Log.d(TAG, "saving icon " + backupKey);
-                            Bitmap icon = mIconCache.getIcon(intent, myUserHandle);
-                            if (icon != null && !mIconCache.isDefaultIcon(icon, myUserHandle)) {
-                                writeRowToBackup(key, packIcon(dpi, icon), data);
-                                mKeys.add(key);
-                                backupUpIconCount ++;
-                            }
-                        } else {
-                            if (VERBOSE) Log.v(TAG, "deferring icon backup " + backupKey);
-                            // too many icons for this pass, request another.
-                            dataChanged();
+                    Bitmap icon = mIconCache.getIcon(intent, myUserHandle);
+                    if (icon == null || mIconCache.isDefaultIcon(icon, myUserHandle)) {
+                        if (exists) {
+                            keepRow(key, old);
                         }
+                        continue;
+                    }
+                    ResourceChecksum checksum =
+                            newChecksum(backupKey, checksumBitmap(dpi, icon), version);
+                    if (exists && (old == null || old.checksum == checksum.checksum)) {
+                        // Unchanged, or saved before checksums were kept.
+                        if (DEBUG) Log.d(TAG, "already saved icon " + backupKey);
+                        keepRow(key, checksum);
+                    } else if (pendingRows.size() < MAX_ICONS_PER_PASS) {
+                        if (DEBUG) Log.d(TAG, "saving icon " + backupKey);
+                        pendingRows.add(new PendingRow(key, checksum, exists,
+                                ENCODE_EXECUTOR.submit(new IconEncoder(dpi, icon))));
+                    } else {
+                        if (VERBOSE) Log.v(TAG, "deferring icon backup " + backupKey);
+                        if (exists) {
+                            keepRow(key, old);
+                        }
+                        // too many icons for this pass, request another.
+                        dataChanged();
                     }
                 } catch (URISyntaxException e) {
                     Log.e(TAG, "invalid URI on application favorite: " + id);
-                } catch (IOException e) {
-                    Log.e(TAG, "unable to save application icon for favorite: " + id);
                 }
-
             }
         } finally {
             cursor.close();
         }
+        writePendingRows(pendingRows, data);
     }
 
     /**
@@ -648,14 +714,18 @@ public class LauncherBackupHelper implements BackupHelper {
      * Write all the static widget resources we need to render placeholders
      * for a package that is not installed.
      *
+     * <P>Widgets are only written again if their package was updated and their description
+     * changed since the last backup.
+     *
      * @param data output stream for key/value pairs
      * @throws IOException
      */
     private void backupWidgets(BackupDataOutput data) throws IOException {
-        // persist static widget info that hasn't been persisted yet
+        // persist static widget info that hasn't been persisted yet, or changed since
         final ContentResolver cr = mContext.getContentResolver();
         final int dpi = mContext.getResources().getDisplayMetrics().densityDpi;
-        int backupWidgetCount = 0;
+        final HashSet<String> seenKeys = new HashSet<String>();
+        final ArrayList<PendingRow> pendingRows = new ArrayList<PendingRow>();
 
         String where = Favorites.ITEM_TYPE + "=" + Favorites.ITEM_TYPE_APPWIDGET + " AND "
                 + getUserSelectionArg();
@@ -668,43 +738,172 @@ public class LauncherBackupHelper implements BackupHelper {
                 final long id = cursor.getLong(ID_INDEX);
                 final String providerName = cursor.getString(APPWIDGET_PROVIDER_INDEX);
                 final ComponentName provider = ComponentName.unflattenFromString(providerName);
-
-                Key key = null;
-                String backupKey = null;
-                if (provider != null) {
-                    key = getKey(Key.WIDGET, providerName);
-                    backupKey = keyToBackupKey(key);
-                } else {
+                if (provider == null) {
                     Log.w(TAG, "empty intent on appwidget: " + id);
+                    continue;
+                }
+                Key key = getKey(Key.WIDGET, providerName);
+                String backupKey = keyToBackupKey(key);
+                if (!seenKeys.add(backupKey)) {
+                    // Several widgets share this provider.
+                    continue;
                 }
 
                 // Widget backup proto changed in v3. So add it again if the original backup is old.
-                if (mExistingKeys.contains(backupKey) && restoredBackupVersion >= 3) {
+                boolean exists = mExistingKeys.contains(backupKey) && restoredBackupVersion >= 3;
+                ResourceChecksum old = mExistingChecksums.get(backupKey);
+                long version = getPackageVersion(provider.getPackageName());
+                if (exists && old != null && old.sourceVersion == version
+                        && version != UNKNOWN_SOURCE_VERSION) {
                     if (DEBUG) Log.d(TAG, "already saved widget " + backupKey);
+                    keepRow(key, old);
+                    continue;
+                }
 
-                    // remember that we already backed this up previously
-                    mKeys.add(key);
-                } else if (backupKey != null) {
-                    if (DEBUG) Log.d(TAG, "I can count this high: " + backupWidgetCount);
-                    if (backupWidgetCount < MAX_WIDGETS_PER_PASS) {
-                        LauncherAppWidgetProviderInfo widgetInfo = widgetManager
-                                .getLauncherAppWidgetInfo(cursor.getInt(APPWIDGET_ID_INDEX));
-                        if (widgetInfo != null) {
-                            if (DEBUG) Log.d(TAG, "saving widget " + backupKey);
-                            writeRowToBackup(key, packWidget(dpi, widgetInfo), data);
-                            mKeys.add(key);
-                            backupWidgetCount ++;
-                        }
-                    } else {
-                        if (VERBOSE) Log.v(TAG, "deferring widget backup " + backupKey);
-                        // too many widgets for this pass, request another.
-                        dataChanged();
+                LauncherAppWidgetProviderInfo widgetInfo = widgetManager
+                        .getLauncherAppWidgetInfo(cursor.getInt(APPWIDGET_ID_INDEX));
+                if (widgetInfo == null) {
+                    if (exists) {
+                        keepRow(key, old);
                     }
+                    continue;
+                }
+                // The icon is rendered once, for both the checksum and the backup.
+                Bitmap icon = createWidgetIcon(widgetInfo);
+                ResourceChecksum checksum =
+                        newChecksum(backupKey, checksumWidget(dpi, widgetInfo, icon), version);
+                if (exists && (old == null || old.checksum == checksum.checksum)) {
+                    // Unchanged, or saved before checksums were kept.
+                    if (DEBUG) Log.d(TAG, "already saved widget " + backupKey);
+                    keepRow(key, checksum);
+                } else if (pendingRows.size() < MAX_WIDGETS_PER_PASS) {
+                    if (DEBUG) Log.d(TAG, "saving widget " + backupKey);
+                    pendingRows.add(new PendingRow(key, checksum, exists,
+                            ENCODE_EXECUTOR.submit(new WidgetEncoder(dpi, widgetInfo, icon))));
+                } else {
+                    if (VERBOSE) Log.v(TAG, "deferring widget backup " + backupKey);
+                    if (exists) {
+                        keepRow(key, old);
+                    }
+                    // too many widgets for this pass, request another.
+                    dataChanged();
                 }
             }
         } finally {
             cursor.close();
         }
+        writePendingRows(pendingRows, data);
+    }
+
+    /**
+     * Write the icons and widgets encoded in the background, in the order they were queued.
+     */
+    private void writePendingRows(ArrayList<PendingRow> pendingRows, BackupDataOutput data)
+            throws IOException {
+        for (PendingRow row : pendingRows) {
+            MessageNano proto = null;
+            try {
+                proto = row.proto.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "unable to encode " + row.key.name, e);
+            }
+            if (proto != null) {
+                writeRowToBackup(row.key, proto, data);
+                keepRow(row.key, row.checksum);
+            } else if (row.exists) {
+                // Keep the previous version and try again later.
+                keepRow(row.key, null);
+                dataChanged();
+            }
+        }
+    }
+
+    /**
+     * Remember that the key is part of the backup, along with the checksum of its content.
+     */
+    private void keepRow(Key key, ResourceChecksum checksum) {
+        mKeys.add(key);
+        if (checksum != null) {
+            mChecksums.add(checksum);
+        }
+    }
+
+    private ResourceChecksum newChecksum(String backupKey, long checksum, long version) {
+        ResourceChecksum result = new ResourceChecksum();
+        result.key = backupKey;
+        result.checksum = checksum;
+        result.sourceVersion = version;
+        return result;
+    }
+
+    /**
+     * @return the last update time of the package, or {@link #UNKNOWN_SOURCE_VERSION}
+     */
+    private long getPackageVersion(String packageName) {
+        Long version = mPackageVersions.get(packageName);
+        if (version == null) {
+            try {
+                version = mContext.getPackageManager()
+                        .getPackageInfo(packageName, 0).lastUpdateTime;
+            } catch (NameNotFoundException e) {
+                version = UNKNOWN_SOURCE_VERSION;
+            }
+            mPackageVersions.put(packageName, version);
+        }
+        return version;
+    }
+
+    /** Compute the checksum of the pixels of an icon, without encoding it. */
+    private long checksumBitmap(int dpi, Bitmap icon) {
+        CRC32 checksum = new CRC32();
+        updateChecksum(checksum, dpi);
+        updateChecksum(checksum, icon);
+        return checksum.getValue();
+    }
+
+    /**
+     * Compute the checksum over the fields of a widget that end up in its backup.
+     *
+     * @param icon the icon rendered by {@link #createWidgetIcon}, or null
+     */
+    private long checksumWidget(int dpi, LauncherAppWidgetProviderInfo info, Bitmap icon) {
+        Point spans = info.getMinSpans(mIdp, mContext);
+        CRC32 checksum = new CRC32();
+        updateChecksum(checksum, dpi, info.configure != null ? 1 : 0, spans.x, spans.y);
+        if (!TextUtils.isEmpty(info.label)) {
+            checksum.update(info.label.getBytes());
+        }
+        if (icon != null) {
+            updateChecksum(checksum, icon);
+        } else {
+            updateChecksum(checksum, 0);
+        }
+        return checksum.getValue();
+    }
+
+    /** Add the size and the pixels of an icon to a checksum. */
+    private void updateChecksum(CRC32 checksum, Bitmap icon) {
+        int size = icon.getRowBytes() * icon.getHeight();
+        if (mPixelBuffer == null || mPixelBuffer.capacity() < size) {
+            mPixelBuffer = ByteBuffer.allocate(size);
+        }
+        mPixelBuffer.clear();
+        icon.copyPixelsToBuffer(mPixelBuffer);
+
+        updateChecksum(checksum, icon.getWidth(), icon.getHeight());
+        checksum.update(mPixelBuffer.array(), 0, mPixelBuffer.position());
+    }
+
+    /**
+     * Add whole ints to a checksum. {@link CRC32#update(int)} only takes the low byte of its
+     * argument.
+     */
+    private static void updateChecksum(CRC32 checksum, int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        checksum.update(buffer.array());
     }
 
     /**
@@ -1002,23 +1201,34 @@ public class LauncherBackupHelper implements BackupHelper {
     }
 
     /** Serialize an icon Resource for persistence, including a checksum wrapper. */
-    private Resource packIcon(int dpi, Bitmap icon) {
+    @Thunk Resource packIcon(int dpi, Bitmap icon) {
         Resource res = new Resource();
         res.dpi = dpi;
         res.data = Utilities.flattenBitmap(icon);
         return res;
     }
 
-    /** Serialize a widget for persistence, including a checksum wrapper. */
-    private Widget packWidget(int dpi, LauncherAppWidgetProviderInfo info) {
+    /** Render the icon of a widget as it is saved in the backup, or null if it has none. */
+    private Bitmap createWidgetIcon(LauncherAppWidgetProviderInfo info) {
+        if (info.icon == 0) {
+            return null;
+        }
+        Drawable fullResIcon = mIconCache.getFullResIcon(info.provider.getPackageName(), info.icon);
+        return Utilities.createIconBitmap(fullResIcon, mContext);
+    }
+
+    /**
+     * Serialize a widget for persistence, including a checksum wrapper.
+     *
+     * @param icon the icon rendered by {@link #createWidgetIcon}, or null
+     */
+    @Thunk Widget packWidget(int dpi, LauncherAppWidgetProviderInfo info, Bitmap icon) {
         Widget widget = new Widget();
         widget.provider = info.provider.flattenToShortString();
         widget.label = info.label;
         widget.configure = info.configure != null;
-        if (info.icon != 0) {
+        if (icon != null) {
             widget.icon = new Resource();
-            Drawable fullResIcon = mIconCache.getFullResIcon(info.provider.getPackageName(), info.icon);
-            Bitmap icon = Utilities.createIconBitmap(fullResIcon, mContext);
             widget.icon.data = Utilities.flattenBitmap(icon);
             widget.icon.dpi = dpi;
         }
@@ -1188,6 +1398,54 @@ public class LauncherBackupHelper implements BackupHelper {
                 .getSerialNumberForUser(UserHandleCompat.myUserHandle());
     }
 
+    /** An icon or widget being encoded in the background. */
+    private static class PendingRow {
+        final Key key;
+        final ResourceChecksum checksum;
+        final boolean exists;
+        final Future<? extends MessageNano> proto;
+
+        PendingRow(Key key, ResourceChecksum checksum, boolean exists,
+                Future<? extends MessageNano> proto) {
+            this.key = key;
+            this.checksum = checksum;
+            this.exists = exists;
+            this.proto = proto;
+        }
+    }
+
+    private class IconEncoder implements Callable<Resource> {
+        private final int mDpi;
+        private final Bitmap mIcon;
+
+        IconEncoder(int dpi, Bitmap icon) {
+            mDpi = dpi;
+            mIcon = icon;
+        }
+
+        @Override
+        public Resource call() {
+            return packIcon(mDpi, mIcon);
+        }
+    }
+
+    private class WidgetEncoder implements Callable<Widget> {
+        private final int mDpi;
+        private final LauncherAppWidgetProviderInfo mInfo;
+        private final Bitmap mIcon;
+
+        WidgetEncoder(int dpi, LauncherAppWidgetProviderInfo info, Bitmap icon) {
+            mDpi = dpi;
+            mInfo = info;
+            mIcon = icon;
+        }
+
+        @Override
+        public Widget call() {
+            return packWidget(mDpi, mInfo, mIcon);
+        }
+    }
+
     @Thunk class InvalidBackupException extends IOException {
 
         private static final long serialVersionUID = 8931456637211665082L;
@@ -5,14 +5,9 @@ import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
 import android.graphics.Canvas;
-import android.graphics.drawable.NinePatchDrawable;
-import android.graphics.Paint;
-import android.graphics.Rect;
-import android.graphics.Typeface;
 import android.os.AsyncTask;
 import android.provider.Settings;
 import android.util.AttributeSet;
@@ -30,6 +25,7 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.security.Provider;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import static com.android.launcher3.AutoInstallsLayout.beginDocument;
 
@@ -71,6 +67,10 @@ public class MTKUnreadLoader extends BroadcastReceiver {
           new ArrayList<UnreadSupportShortcut>();
 
     private static int sUnreadSupportShortcutsNum = 0;
+    // Position of each supported component in UNREAD_SUPPORT_SHORTCUTS, replaced as a whole
+    // whenever the list is reloaded.
+    private static volatile HashMap<ComponentName, Integer> sUnreadSupportIndex =
+            new HashMap<ComponentName, Integer>();
     private static final Object LOG_LOCK = new Object();
 
     private Context mContext;
@@ -211,6 +211,12 @@ public class MTKUnreadLoader extends BroadcastReceiver {
         } catch (IOException e) {
         }
         sUnreadSupportShortcutsNum = UNREAD_SUPPORT_SHORTCUTS.size();
+        HashMap<ComponentName, Integer> index = new HashMap<ComponentName, Integer>();
+        for (int i = sUnreadSupportShortcutsNum - 1; i >= 0; i--) {
+            // Iterate backwards so that the first entry wins for duplicate components.
+            index.put(UNREAD_SUPPORT_SHORTCUTS.get(i).mComponent, i);
+        }
+        sUnreadSupportIndex = index;
         if (LauncherLog.DEBUG_UNREAD) {
             LauncherLog.d(TAG, "loadUnreadSupportShortcuts end: time used = "
                     + (System.currentTimeMillis() - start) + ",sUnreadSupportShortcutsNum = "
@@ -247,14 +253,8 @@ public class MTKUnreadLoader extends BroadcastReceiver {
             return -1;
         }
 
-        final int size = UNREAD_SUPPORT_SHORTCUTS.size();
-        for (int i = 0, sz = size; i < sz; i++) {
-            if (UNREAD_SUPPORT_SHORTCUTS.get(i).mComponent.equals(component)) {
-                return i;
-            }
-        }
-
-        return -1;
+        final Integer index = sUnreadSupportIndex.get(component);
+        return index != null ? index : -1;
     }
 
     /**
@@ -317,119 +317,8 @@ public class MTKUnreadLoader extends BroadcastReceiver {
     public static void drawUnreadEventIfNeed(Canvas canvas, View icon) {
         ItemInfo info = (ItemInfo) icon.getTag();
         if (info != null && info.unreadNum > 0) {
-            Resources res = icon.getContext().getResources();
-
-            /// M: Meature sufficent width for unread text and background image
-            Paint unreadTextNumberPaint = new Paint();
-            unreadTextNumberPaint.setTextSize(res.getDimension(R.dimen.unread_text_number_size));
-            unreadTextNumberPaint.setTypeface(Typeface.DEFAULT_BOLD);
-            unreadTextNumberPaint.setColor(0xffffffff);
-            unreadTextNumberPaint.setTextAlign(Paint.Align.CENTER);
-
-            Paint unreadTextPlusPaint = new Paint(unreadTextNumberPaint);
-            unreadTextPlusPaint.setTextSize(res.getDimension(R.dimen.unread_text_plus_size));
-
-            String unreadTextNumber;
-            String unreadTextPlus = "+";
-            Rect unreadTextNumberBounds = new Rect(0, 0, 0, 0);
-            Rect unreadTextPlusBounds = new Rect(0, 0, 0, 0);
-            if (info.unreadNum > Launcher.MAX_UNREAD_COUNT) {
-                unreadTextNumber = String.valueOf(Launcher.MAX_UNREAD_COUNT);
-                unreadTextPlusPaint.getTextBounds(unreadTextPlus, 0,
-                    unreadTextPlus.length(), unreadTextPlusBounds);
-            } else {
-                unreadTextNumber = String.valueOf(info.unreadNum);
-            }
-            unreadTextNumberPaint.getTextBounds(unreadTextNumber, 0,
-                unreadTextNumber.length(), unreadTextNumberBounds);
-            int textHeight = unreadTextNumberBounds.height();
-            int textWidth = unreadTextNumberBounds.width() + unreadTextPlusBounds.width();
-
-            /// M: Draw unread background image.
-            NinePatchDrawable unreadBgNinePatchDrawable =
-                (NinePatchDrawable) res.getDrawable(R.drawable.ic_newevents_numberindication);
-            int unreadBgWidth = unreadBgNinePatchDrawable.getIntrinsicWidth();
-            int unreadBgHeight = unreadBgNinePatchDrawable.getIntrinsicHeight();
-
-            int unreadMinWidth = (int) res.getDimension(R.dimen.unread_minWidth);
-            if (unreadBgWidth < unreadMinWidth) {
-                unreadBgWidth = unreadMinWidth;
-            }
-            int unreadTextMargin = (int) res.getDimension(R.dimen.unread_text_margin);
-            if (unreadBgWidth < textWidth + unreadTextMargin) {
-                unreadBgWidth = textWidth + unreadTextMargin;
-            }
-            if (unreadBgHeight < textHeight) {
-                unreadBgHeight = textHeight;
-            }
-            Rect unreadBgBounds = new Rect(0, 0, unreadBgWidth, unreadBgHeight);
-            unreadBgNinePatchDrawable.setBounds(unreadBgBounds);
-
-            int unreadMarginTop = 0;
-            int unreadMarginRight = 0;
-            if (info instanceof ShortcutInfo) {
-                if (info.container == (long) LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                    unreadMarginTop = (int) res.getDimension(R.dimen.hotseat_unread_margin_top1);
-                    unreadMarginRight = (int) res.getDimension(R.dimen.hotseat_unread_margin_right);
-                } else if (info.container == (long) LauncherSettings.Favorites.CONTAINER_DESKTOP) {
-                    unreadMarginTop = (int) res.getDimension(R.dimen.workspace_unread_margin_top1);
-                    unreadMarginRight = (int) res.getDimension(
-                        R.dimen.workspace_unread_margin_right);
-                } else {
-                    unreadMarginTop = (int) res.getDimension(R.dimen.folder_unread_margin_top);
-                    unreadMarginRight = (int) res.getDimension(R.dimen.folder_unread_margin_right);
-                }
-            } else if (info instanceof FolderInfo) {
-                if (info.container == (long) LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
-                    unreadMarginTop = (int) res.getDimension(R.dimen.hotseat_unread_margin_top1);
-                    unreadMarginRight = (int) res.getDimension(R.dimen.hotseat_unread_margin_right);
-                } else if (info.container == (long) LauncherSettings.Favorites.CONTAINER_DESKTOP) {
-                    unreadMarginTop = (int) res.getDimension(R.dimen.workspace_unread_margin_top1);
-                    unreadMarginRight = (int) res.getDimension(
-                        R.dimen.workspace_unread_margin_right);
-                }
-            }
-            else if (info instanceof AppInfo) {
-                unreadMarginTop = (int) res.getDimension(R.dimen.app_list_unread_margin_top);
-                unreadMarginRight = (int) res.getDimension(R.dimen.app_list_unread_margin_right);
-            }
-
-            int unreadBgPosX = icon.getScrollX() + icon.getWidth()
-                - unreadBgWidth - unreadMarginRight;
-            int unreadBgPosY = icon.getScrollY() + unreadMarginTop;
-
-            canvas.save();
-            canvas.translate(unreadBgPosX, unreadBgPosY);
-
-            if (unreadBgNinePatchDrawable != null) {
-                unreadBgNinePatchDrawable.draw(canvas);
-            } else {
-                if (LauncherLog.DEBUG_UNREAD) {
-                    LauncherLog.d(TAG, "drawUnreadEventIfNeed: "
-                        + "unreadBgNinePatchDrawable is null pointer");
-                }
-                return;
-            }
-
-            /// M: Draw unread text.
-            Paint.FontMetrics fontMetrics = unreadTextNumberPaint.getFontMetrics();
-            if (info.unreadNum > Launcher.MAX_UNREAD_COUNT) {
-                canvas.drawText(unreadTextNumber,
-                                (unreadBgWidth - unreadTextPlusBounds.width()) / 2,
-                                (unreadBgHeight + textHeight) / 2,
-                                unreadTextNumberPaint);
-                canvas.drawText(unreadTextPlus,
-                                (unreadBgWidth + unreadTextNumberBounds.width()) / 2,
-                                (unreadBgHeight + textHeight) / 2 + fontMetrics.ascent / 2,
-                                unreadTextPlusPaint);
-            } else {
-                canvas.drawText(unreadTextNumber,
-                                unreadBgWidth / 2,
-                                (unreadBgHeight + textHeight) / 2,
-                                unreadTextNumberPaint);
-            }
-
-            canvas.restore();
+            UnreadBadgeRenderer.getInstance(icon.getResources()).draw(canvas, info,
+                    icon.getScrollX(), icon.getScrollY(), icon.getWidth());
         }
     }
 
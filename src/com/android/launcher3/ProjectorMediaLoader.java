@@ -0,0 +1,405 @@
+package com.android.launcher3;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Loads the recent documents and pictures shown in the projector menu.
+ *
+ * MediaStore is only queried on a background thread, and a burst of changes reported by the
+ * content observers results in a single reload of the affected feed. Results are delivered on
+ * the UI thread, and only when they changed. Picture thumbnails are cached in memory and on disk,
+ * keyed by image id and modification time, so each picture is only decoded once.
+ */
+class ProjectorMediaLoader {
+    private static final String TAG = "ProjectorMediaLoader";
+
+    public interface Callbacks {
+        void bindProjectorDocuments(ArrayList<FileData> documents);
+        void bindProjectorPictures(ArrayList<GalleryData> pictures, ArrayList<Bitmap> thumbnails);
+    }
+
+    static final int MAX_DOCUMENTS = 5;
+    static final int MAX_PICTURES = 3;
+
+    // Rows read per document query, leaving room for entries whose file no longer exists.
+    private static final int DOCUMENT_QUERY_LIMIT = 20;
+    private static final long REFRESH_DELAY_MS = 5000;
+    private static final int THUMBNAIL_CACHE_SIZE = 2 * MAX_PICTURES;
+    private static final String THUMBNAIL_DIR = "projector_thumbnails";
+    private static final int THUMBNAIL_QUALITY = 90;
+
+    private static final String[] DOCUMENT_EXTENSIONS =
+            {"doc", "docx", "ppt", "pptx", "xls", "xlsx", "pdf"};
+    private static final String[] DOCUMENT_MIME_TYPES = {
+            "application/pdf",
+            "application/msword",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.ms-powerpoint",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.ms-excel",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"};
+
+    private static final String[] DOCUMENT_PROJECTION = {
+            MediaStore.Files.FileColumns.DATA,
+            MediaStore.Files.FileColumns.DATE_MODIFIED,
+            MediaStore.Files.FileColumns.MIME_TYPE};
+    private static final int DOCUMENT_DATA = 0;
+    private static final int DOCUMENT_DATE_MODIFIED = 1;
+    private static final int DOCUMENT_MIME_TYPE = 2;
+    private static final String DOCUMENT_SELECTION = buildDocumentSelection();
+
+    private static final String[] PICTURE_PROJECTION = {
+            MediaStore.Images.ImageColumns._ID,
+            MediaStore.Images.ImageColumns.DATA,
+            MediaStore.Images.ImageColumns.DATE_MODIFIED};
+    private static final int PICTURE_ID = 0;
+    private static final int PICTURE_DATA = 1;
+    private static final int PICTURE_DATE_MODIFIED = 2;
+
+    private static final Uri DOCUMENT_URI = MediaStore.Files.getContentUri("external");
+    private static final Uri PICTURE_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+
+    private static HandlerThread sWorkerThread;
+
+    private final ContentResolver mResolver;
+    private final File mThumbnailDir;
+    private final int mThumbnailSize;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Callbacks mCallbacks;
+
+    private ContentObserver mDocumentObserver;
+    private ContentObserver mPictureObserver;
+
+    // Only accessed on the worker thread.
+    private final LruCache<String, Bitmap> mThumbnails = new LruCache<>(THUMBNAIL_CACHE_SIZE);
+    private ArrayList<String> mLastDocumentKeys;
+    private ArrayList<String> mLastPictureKeys;
+
+    private final Runnable mLoadDocuments = new Runnable() {
+        @Override
+        public void run() {
+            loadDocuments();
+        }
+    };
+
+    private final Runnable mLoadPictures = new Runnable() {
+        @Override
+        public void run() {
+            loadPictures();
+        }
+    };
+
+    ProjectorMediaLoader(Context context, Callbacks callbacks, int thumbnailSize) {
+        mResolver = context.getContentResolver();
+        mThumbnailDir = new File(context.getCacheDir(), THUMBNAIL_DIR);
+        mThumbnailSize = thumbnailSize;
+        mCallbacks = callbacks;
+        mWorkerHandler = new Handler(getWorkerThread().getLooper());
+    }
+
+    private static synchronized HandlerThread getWorkerThread() {
+        if (sWorkerThread == null) {
+            sWorkerThread = new HandlerThread("launcher-projector-media",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            sWorkerThread.start();
+        }
+        return sWorkerThread;
+    }
+
+    /**
+     * Loads the recent documents and keeps them up to date until {@link #destroy} is called.
+     */
+    void startLoadingDocuments() {
+        if (mDocumentObserver == null) {
+            mDocumentObserver = new RefreshObserver(mLoadDocuments);
+            mResolver.registerContentObserver(DOCUMENT_URI, true, mDocumentObserver);
+        }
+        mWorkerHandler.removeCallbacks(mLoadDocuments);
+        mWorkerHandler.post(mLoadDocuments);
+    }
+
+    /**
+     * Loads the recent pictures and keeps them up to date until {@link #destroy} is called.
+     */
+    void startLoadingPictures() {
+        if (mPictureObserver == null) {
+            mPictureObserver = new RefreshObserver(mLoadPictures);
+            mResolver.registerContentObserver(PICTURE_URI, true, mPictureObserver);
+        }
+        mWorkerHandler.removeCallbacks(mLoadPictures);
+        mWorkerHandler.post(mLoadPictures);
+    }
+
+    void destroy() {
+        mCallbacks = null;
+        if (mDocumentObserver != null) {
+            mResolver.unregisterContentObserver(mDocumentObserver);
+            mDocumentObserver = null;
+        }
+        if (mPictureObserver != null) {
+            mResolver.unregisterContentObserver(mPictureObserver);
+            mPictureObserver = null;
+        }
+        mWorkerHandler.removeCallbacksAndMessages(null);
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void loadDocuments() {
+        final ArrayList<FileData> documents = new ArrayList<>();
+        ArrayList<String> keys = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = mResolver.query(DOCUMENT_URI, DOCUMENT_PROJECTION, DOCUMENT_SELECTION, null,
+                    MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC LIMIT "
+                            + DOCUMENT_QUERY_LIMIT);
+            if (c == null) {
+                Log.e(TAG, "loadDocuments: cannot get cursor for file");
+                return;
+            }
+            while (c.moveToNext() && documents.size() < MAX_DOCUMENTS) {
+                String filePath = c.getString(DOCUMENT_DATA);
+                if (filePath == null) {
+                    continue;
+                }
+                String fileName = filePath.substring(filePath.lastIndexOf("/") + 1);
+                // The selection is case insensitive, keep the original case sensitive match.
+                if (!isDocument(fileName) || !new File(filePath).exists()) {
+                    continue;
+                }
+                long dateModified = c.getLong(DOCUMENT_DATE_MODIFIED);
+                FileData file = new FileData();
+                file.setFilePath(filePath);
+                file.setFileName(fileName);
+                file.setTimestamp(dateModified * 1000L);
+                file.setMimeType(c.getString(DOCUMENT_MIME_TYPE));
+                documents.add(file);
+                keys.add(filePath + "#" + dateModified);
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "loadDocuments: cannot query documents", e);
+            return;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        if (keys.equals(mLastDocumentKeys)) {
+            return;
+        }
+        mLastDocumentKeys = keys;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callbacks callbacks = mCallbacks;
+                if (callbacks != null) {
+                    callbacks.bindProjectorDocuments(documents);
+                }
+            }
+        });
+    }
+
+    private void loadPictures() {
+        final ArrayList<GalleryData> pictures = new ArrayList<>();
+        ArrayList<Long> ids = new ArrayList<>();
+        ArrayList<String> keys = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = mResolver.query(PICTURE_URI, PICTURE_PROJECTION, null, null,
+                    MediaStore.Images.ImageColumns._ID + " DESC LIMIT " + MAX_PICTURES);
+            if (c == null) {
+                Log.e(TAG, "loadPictures: cannot get cursor for images");
+                return;
+            }
+            while (c.moveToNext()) {
+                long id = c.getLong(PICTURE_ID);
+                GalleryData picture = new GalleryData();
+                picture.setFilePath(c.getString(PICTURE_DATA));
+                pictures.add(picture);
+                ids.add(id);
+                keys.add(id + "_" + c.getLong(PICTURE_DATE_MODIFIED));
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "loadPictures: cannot query images", e);
+            return;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        if (keys.equals(mLastPictureKeys)) {
+            return;
+        }
+        mLastPictureKeys = keys;
+
+        final ArrayList<Bitmap> thumbnails = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            thumbnails.add(getThumbnail(ids.get(i), keys.get(i)));
+        }
+        pruneThumbnailDir(keys);
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callbacks callbacks = mCallbacks;
+                if (callbacks != null) {
+                    callbacks.bindProjectorPictures(pictures, thumbnails);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the thumbnail of the image, from memory, from the disk cache, or decoded from
+     * MediaStore, in this order.
+     */
+    private Bitmap getThumbnail(long id, String key) {
+        Bitmap thumbnail = mThumbnails.get(key);
+        if (thumbnail != null) {
+            return thumbnail;
+        }
+
+        File file = new File(mThumbnailDir, key + ".jpg");
+        if (file.exists()) {
+            thumbnail = BitmapFactory.decodeFile(file.getPath());
+        }
+        if (thumbnail == null) {
+            thumbnail = MediaStore.Images.Thumbnails.getThumbnail(mResolver, id,
+                    MediaStore.Images.Thumbnails.MINI_KIND, null);
+            if (thumbnail == null) {
+                return null;
+            }
+            thumbnail = scaleThumbnail(thumbnail);
+            writeThumbnail(thumbnail, file);
+        }
+        mThumbnails.put(key, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Scales the bitmap down so that its shorter side matches the size of the menu items.
+     */
+    private Bitmap scaleThumbnail(Bitmap bitmap) {
+        int minSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        if (mThumbnailSize <= 0 || minSide <= mThumbnailSize) {
+            return bitmap;
+        }
+        float scale = (float) mThumbnailSize / minSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)), true);
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        return scaled;
+    }
+
+    private void writeThumbnail(Bitmap thumbnail, File file) {
+        if (!mThumbnailDir.isDirectory() && !mThumbnailDir.mkdirs()) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write thumbnail " + file, e);
+            file.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the cached thumbnails of the pictures no longer shown.
+     */
+    private void pruneThumbnailDir(ArrayList<String> keys) {
+        File[] files = mThumbnailDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        HashSet<String> names = new HashSet<>();
+        for (String key : keys) {
+            names.add(key + ".jpg");
+        }
+        for (File file : files) {
+            if (!names.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean isDocument(String fileName) {
+        for (String extension : DOCUMENT_EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String buildDocumentSelection() {
+        StringBuilder selection = new StringBuilder("(")
+                .append(MediaStore.Files.FileColumns.MIME_TYPE).append(" LIKE 'text/%'");
+        for (String mimeType : DOCUMENT_MIME_TYPES) {
+            selection.append(" OR ").append(MediaStore.Files.FileColumns.MIME_TYPE)
+                    .append(" = '").append(mimeType).append("'");
+        }
+        // Never show the hidden files or directories.
+        selection.append(") AND ").append(MediaStore.Files.FileColumns.DATA)
+                .append(" NOT LIKE '%/.%' AND (");
+        for (int i = 0; i < DOCUMENT_EXTENSIONS.length; i++) {
+            if (i > 0) {
+                selection.append(" OR ");
+            }
+            selection.append(MediaStore.Files.FileColumns.DATA)
+                    .append(" LIKE '%.").append(DOCUMENT_EXTENSIONS[i]).append("'");
+        }
+        return selection.append(")").toString();
+    }
+
+    /**
+     * Reloads a feed once its content stopped changing for {@link #REFRESH_DELAY_MS}.
+     */
+    private class RefreshObserver extends ContentObserver {
+        private final Runnable mReload;
+
+        RefreshObserver(Runnable reload) {
+            super(mWorkerHandler);
+            mReload = reload;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mWorkerHandler.removeCallbacks(mReload);
+            mWorkerHandler.postDelayed(mReload, REFRESH_DELAY_MS);
+        }
+    }
+}
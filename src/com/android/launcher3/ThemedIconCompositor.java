@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Creates the themed icons, used when is_rgk_support_bgicon is set.
+ *
+ * The mask, background and frame are prepared once for the icon size, and drawn unscaled on
+ * each icon. This class is thread safe.
+ */
+class ThemedIconCompositor {
+
+    private final Resources mResources;
+    private final Bitmap mMask;
+    private final Bitmap mBackground;
+
+    // The assets for the current icon size.
+    private volatile Assets mAssets;
+
+    ThemedIconCompositor(Context context) {
+        mResources = context.getResources();
+        mMask = BitmapFactory.decodeResource(mResources, R.drawable.rgks_mask);
+        mBackground = BitmapFactory.decodeResource(mResources, R.drawable.rgks_bg);
+    }
+
+    /**
+     * Returns the icon cut by the mask, over the background.
+     */
+    Bitmap createMaskedIcon(Drawable icon, Context context) {
+        Assets assets = getAssets();
+        return Utilities.createIconBitmapWithMask(icon, assets.mask, assets.background, context);
+    }
+
+    /**
+     * Returns the icon scaled down inside the frame, used for the icons which are not masked.
+     */
+    Bitmap createFramedIcon(Drawable icon, Context context) {
+        return Utilities.createIconBitmapWithFrame(icon, getAssets().frame, context);
+    }
+
+    private Assets getAssets() {
+        final int size = Utilities.getIconBitmapSize();
+        Assets assets = mAssets;
+        if (assets == null || assets.size != size) {
+            synchronized (this) {
+                assets = mAssets;
+                if (assets == null || assets.size != size) {
+                    assets = new Assets(size);
+                    mAssets = assets;
+                }
+            }
+        }
+        return assets;
+    }
+
+    private final class Assets {
+        final int size;
+        final Bitmap mask;
+        final Bitmap background;
+        final Bitmap frame;
+
+        Assets(int size) {
+            this.size = size;
+            mask = mMask == null ? null : Bitmap.createScaledBitmap(mMask, size, size, true);
+            background = mBackground == null
+                    ? null : Bitmap.createScaledBitmap(mBackground, size, size, true);
+
+            // The frame drawable is drawn the same way the icons are.
+            Drawable frameDrawable = mResources.getDrawable(R.drawable.rgks_bg);
+            if (frameDrawable != null) {
+                frame = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(frame);
+                canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                        Paint.FILTER_BITMAP_FLAG));
+                frameDrawable.setBounds(0, 0, size, size);
+                frameDrawable.draw(canvas);
+                canvas.setBitmap(null);
+            } else {
+                frame = null;
+            }
+        }
+    }
+}
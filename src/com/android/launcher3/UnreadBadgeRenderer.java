@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.graphics.drawable.NinePatchDrawable;
+import android.util.SparseArray;
+
+/**
+ * M: Draws the unread number badges on icons.
+ *
+ * The paints and dimensions are resolved once per {@link Resources}, and each badge is rendered
+ * once into a bitmap for its displayed number, so drawing a badge on an icon is a single bitmap
+ * draw. Only used on the UI thread.
+ */
+class UnreadBadgeRenderer {
+
+    // Container types, used to pick the badge margins.
+    private static final int CONTAINER_NONE = 0;
+    private static final int CONTAINER_HOTSEAT = 1;
+    private static final int CONTAINER_WORKSPACE = 2;
+    private static final int CONTAINER_FOLDER = 3;
+    private static final int CONTAINER_ALL_APPS = 4;
+    private static final int CONTAINER_COUNT = 5;
+
+    // Key of the badge shown for counts above Launcher.MAX_UNREAD_COUNT.
+    private static final int OVERFLOW_KEY = Launcher.MAX_UNREAD_COUNT + 1;
+
+    private static UnreadBadgeRenderer sInstance;
+
+    private final Resources mResources;
+    private final Paint mNumberPaint;
+    private final Paint mPlusPaint;
+    private final Rect mTempRect = new Rect();
+
+    private final int mMinWidth;
+    private final int mTextMargin;
+    private final int[] mMarginTop = new int[CONTAINER_COUNT];
+    private final int[] mMarginRight = new int[CONTAINER_COUNT];
+
+    // Rendered badges, keyed by displayed number or OVERFLOW_KEY
+    private final SparseArray<Bitmap> mBadges = new SparseArray<>();
+
+    static UnreadBadgeRenderer getInstance(Resources res) {
+        if (sInstance == null || sInstance.mResources != res) {
+            sInstance = new UnreadBadgeRenderer(res);
+        }
+        return sInstance;
+    }
+
+    private UnreadBadgeRenderer(Resources res) {
+        mResources = res;
+
+        mNumberPaint = new Paint();
+        mNumberPaint.setTextSize(res.getDimension(R.dimen.unread_text_number_size));
+        mNumberPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        mNumberPaint.setColor(0xffffffff);
+        mNumberPaint.setTextAlign(Paint.Align.CENTER);
+
+        mPlusPaint = new Paint(mNumberPaint);
+        mPlusPaint.setTextSize(res.getDimension(R.dimen.unread_text_plus_size));
+
+        mMinWidth = (int) res.getDimension(R.dimen.unread_minWidth);
+        mTextMargin = (int) res.getDimension(R.dimen.unread_text_margin);
+
+        mMarginTop[CONTAINER_HOTSEAT] = (int) res.getDimension(R.dimen.hotseat_unread_margin_top1);
+        mMarginRight[CONTAINER_HOTSEAT] =
+                (int) res.getDimension(R.dimen.hotseat_unread_margin_right);
+        mMarginTop[CONTAINER_WORKSPACE] =
+                (int) res.getDimension(R.dimen.workspace_unread_margin_top1);
+        mMarginRight[CONTAINER_WORKSPACE] =
+                (int) res.getDimension(R.dimen.workspace_unread_margin_right);
+        mMarginTop[CONTAINER_FOLDER] = (int) res.getDimension(R.dimen.folder_unread_margin_top);
+        mMarginRight[CONTAINER_FOLDER] =
+                (int) res.getDimension(R.dimen.folder_unread_margin_right);
+        mMarginTop[CONTAINER_ALL_APPS] =
+                (int) res.getDimension(R.dimen.app_list_unread_margin_top);
+        mMarginRight[CONTAINER_ALL_APPS] =
+                (int) res.getDimension(R.dimen.app_list_unread_margin_right);
+    }
+
+    /**
+     * Draws the badge for the given unread number at the top right corner of the icon.
+     */
+    void draw(Canvas canvas, ItemInfo info, int iconScrollX, int iconScrollY, int iconWidth) {
+        Bitmap badge = getBadge(info.unreadNum);
+        if (badge == null) {
+            return;
+        }
+        int container = getContainerType(info);
+        int x = iconScrollX + iconWidth - badge.getWidth() - mMarginRight[container];
+        int y = iconScrollY + mMarginTop[container];
+        canvas.drawBitmap(badge, x, y, null);
+    }
+
+    private static int getContainerType(ItemInfo info) {
+        if (info instanceof ShortcutInfo) {
+            if (info.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                return CONTAINER_HOTSEAT;
+            } else if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                return CONTAINER_WORKSPACE;
+            } else {
+                return CONTAINER_FOLDER;
+            }
+        } else if (info instanceof FolderInfo) {
+            if (info.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT) {
+                return CONTAINER_HOTSEAT;
+            } else if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                return CONTAINER_WORKSPACE;
+            }
+        } else if (info instanceof AppInfo) {
+            return CONTAINER_ALL_APPS;
+        }
+        return CONTAINER_NONE;
+    }
+
+    private Bitmap getBadge(int unreadNum) {
+        int key = Math.min(unreadNum, OVERFLOW_KEY);
+        Bitmap badge = mBadges.get(key);
+        if (badge == null) {
+            badge = createBadge(key);
+            if (badge != null) {
+                mBadges.put(key, badge);
+            }
+        }
+        return badge;
+    }
+
+    private Bitmap createBadge(int key) {
+        NinePatchDrawable background = (NinePatchDrawable)
+                mResources.getDrawable(R.drawable.ic_newevents_numberindication);
+        if (background == null) {
+            return null;
+        }
+
+        /// M: Meature sufficent width for unread text and background image
+        final boolean overflow = key == OVERFLOW_KEY;
+        final String number = String.valueOf(overflow ? Launcher.MAX_UNREAD_COUNT : key);
+        final String plus = "+";
+
+        final Rect numberBounds = mTempRect;
+        int plusWidth = 0;
+        if (overflow) {
+            mPlusPaint.getTextBounds(plus, 0, plus.length(), numberBounds);
+            plusWidth = numberBounds.width();
+        }
+        mNumberPaint.getTextBounds(number, 0, number.length(), numberBounds);
+        final int numberWidth = numberBounds.width();
+        final int textHeight = numberBounds.height();
+        final int textWidth = numberWidth + plusWidth;
+
+        int width = Math.max(background.getIntrinsicWidth(), mMinWidth);
+        width = Math.max(width, textWidth + mTextMargin);
+        int height = Math.max(background.getIntrinsicHeight(), textHeight);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        Bitmap badge = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(badge);
+        background.setBounds(0, 0, width, height);
+        background.draw(canvas);
+
+        /// M: Draw unread text.
+        if (overflow) {
+            Paint.FontMetrics fontMetrics = mNumberPaint.getFontMetrics();
+            canvas.drawText(number, (width - plusWidth) / 2, (height + textHeight) / 2,
+                    mNumberPaint);
+            canvas.drawText(plus, (width + numberWidth) / 2,
+                    (height + textHeight) / 2 + fontMetrics.ascent / 2, mPlusPaint);
+        } else {
+            canvas.drawText(number, width / 2, (height + textHeight) / 2, mNumberPaint);
+        }
+        canvas.setBitmap(null);
+        return badge;
+    }
+}
@@ -85,7 +85,6 @@ import java.util.Calendar;
 //add by luoran for modify icon 20170309 start
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
-import android.graphics.Bitmap.Config;
 //add by luoran for modify icon 20170309 end
 /**
  * Various utilities shared amongst the Launcher's classes.
@@ -97,16 +96,27 @@ public final class Utilities {
     private static int sIconHeight = -1;
     public static int sIconTextureWidth = -1;
     public static int sIconTextureHeight = -1;
-    private static final Rect sOldBounds = new Rect();
-    private static final Canvas sCanvas = new Canvas();
 
-    private static final Pattern sTrimPattern =
-            Pattern.compile("^[\\s|\\p{javaSpaceChar}]*(.*)[\\s|\\p{javaSpaceChar}]*$");
+    // Each thread draws icons on its own canvas, so icons can be created in parallel.
+    private static final ThreadLocal<IconRenderContext> sRenderContext =
+            new ThreadLocal<IconRenderContext>() {
+                @Override
+                protected IconRenderContext initialValue() {
+                    return new IconRenderContext();
+                }
+            };
 
+    // Paints of the themed icon composite, never modified once created.
+    private static final Paint sMaskPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private static final Paint sBackgroundPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
     static {
-        sCanvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
-                Paint.FILTER_BITMAP_FLAG));
+        sMaskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OUT));
+        sBackgroundPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
     }
+
+    private static final Pattern sTrimPattern =
+            Pattern.compile("^[\\s|\\p{javaSpaceChar}]*(.*)[\\s|\\p{javaSpaceChar}]*$");
+
     static int sColors[] = { 0xffff0000, 0xff00ff00, 0xff0000ff };
     static int sColorIndex = 0;
 
@@ -198,7 +208,7 @@ public final class Utilities {
         return null;
     }
 
-    private static int getIconBitmapSize() {
+    static int getIconBitmapSize() {
         return LauncherAppState.getInstance().getInvariantDeviceProfile().iconBitmapSize;
     }
 
@@ -249,70 +259,69 @@ public final class Utilities {
      * @param scale the scale to apply before drawing {@param icon} on the canvas
      */
     public static Bitmap createIconBitmap(Drawable icon, Context context, float scale) {
-        synchronized (sCanvas) {
-            final int iconBitmapSize = getIconBitmapSize();
-
-            int width = iconBitmapSize;
-            int height = iconBitmapSize;
-
-            if (icon instanceof PaintDrawable) {
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                // Ensure the bitmap has a density.
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                if (bitmap != null && bitmap.getDensity() == Bitmap.DENSITY_NONE) {
-                    bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-                }
+        final IconRenderContext renderContext = sRenderContext.get();
+        final int iconBitmapSize = getIconBitmapSize();
+
+        int width = iconBitmapSize;
+        int height = iconBitmapSize;
+
+        if (icon instanceof PaintDrawable) {
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            // Ensure the bitmap has a density.
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            if (bitmap != null && bitmap.getDensity() == Bitmap.DENSITY_NONE) {
+                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
             }
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                // Scale the icon proportionally to the icon dimensions
-                final float ratio = (float) sourceWidth / sourceHeight;
-                if (sourceWidth > sourceHeight) {
-                    height = (int) (width / ratio);
-                } else if (sourceHeight > sourceWidth) {
-                    width = (int) (height * ratio);
-                }
+        }
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            // Scale the icon proportionally to the icon dimensions
+            final float ratio = (float) sourceWidth / sourceHeight;
+            if (sourceWidth > sourceHeight) {
+                height = (int) (width / ratio);
+            } else if (sourceHeight > sourceWidth) {
+                width = (int) (height * ratio);
             }
+        }
 
-            // no intrinsic size --> use default size
-            int textureWidth = iconBitmapSize;
-            int textureHeight = iconBitmapSize;
-
-            final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            final int left = (textureWidth-width) / 2;
-            final int top = (textureHeight-height) / 2;
-
-            @SuppressWarnings("all") // suppress dead code warning
-            final boolean debug = false;
-            if (debug) {
-                // draw a big box for the icon for debugging
-                canvas.drawColor(sColors[sColorIndex]);
-                if (++sColorIndex >= sColors.length) sColorIndex = 0;
-                Paint debugPaint = new Paint();
-                debugPaint.setColor(0xffcccc00);
-                canvas.drawRect(left, top, left+width, top+height, debugPaint);
-            }
+        // no intrinsic size --> use default size
+        int textureWidth = iconBitmapSize;
+        int textureHeight = iconBitmapSize;
 
-            sOldBounds.set(icon.getBounds());
-            icon.setBounds(left, top, left+width, top+height);
-            canvas.save(Canvas.MATRIX_SAVE_FLAG);
-            canvas.scale(scale, scale, textureWidth / 2, textureHeight / 2);
-            icon.draw(canvas);
-            canvas.restore();
-            icon.setBounds(sOldBounds);
-            canvas.setBitmap(null);
+        final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = renderContext.canvas;
+        canvas.setBitmap(bitmap);
 
-            return bitmap;
+        final int left = (textureWidth-width) / 2;
+        final int top = (textureHeight-height) / 2;
+
+        @SuppressWarnings("all") // suppress dead code warning
+        final boolean debug = false;
+        if (debug) {
+            // draw a big box for the icon for debugging
+            canvas.drawColor(sColors[sColorIndex]);
+            if (++sColorIndex >= sColors.length) sColorIndex = 0;
+            Paint debugPaint = new Paint();
+            debugPaint.setColor(0xffcccc00);
+            canvas.drawRect(left, top, left+width, top+height, debugPaint);
         }
+
+        renderContext.oldBounds.set(icon.getBounds());
+        icon.setBounds(left, top, left+width, top+height);
+        canvas.save(Canvas.MATRIX_SAVE_FLAG);
+        canvas.scale(scale, scale, textureWidth / 2, textureHeight / 2);
+        icon.draw(canvas);
+        canvas.restore();
+        icon.setBounds(renderContext.oldBounds);
+        canvas.setBitmap(null);
+
+        return bitmap;
     }
 	 //Add BUG_ID:DWYSBM-79 zhaopenglin 20160602(start)
     static Bitmap createCalendarIconBitmap(Drawable icon, Context context){
@@ -321,62 +330,61 @@ public final class Utilities {
         String weekString  = weekStrings[Calendar.getInstance().get(Calendar.DAY_OF_WEEK)-1];
         String dayString  = String.valueOf(Calendar.getInstance().get(Calendar.DAY_OF_MONTH));
         if(dayString.length()==1) dayString =0 + dayString;
-        synchronized (sCanvas) {
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(calendarIcon);
-
-            final float mDensity = context.getResources().getDisplayMetrics().density;
-
-            Paint mDatePaint = new Paint();
-            Paint mWeekPaint = new Paint();
-            mDatePaint.setTypeface(Typeface.createFromFile("/system/fonts/Roboto-Thin.ttf"));
-            mWeekPaint.setTextSize((int)8F * mDensity);
-            mDatePaint.setTextSize((int)34F * mDensity);
-            mDatePaint.setColor(0xff000000);
-            mWeekPaint.setColor(0xffff0000);
-            mDatePaint.setAntiAlias(true);
-            mWeekPaint.setAntiAlias(true);
-
-            Rect rect = new Rect();
-            mDatePaint.getTextBounds(dayString,0,dayString.length(),rect);
-            int width1 = rect.right - rect.left;
-            int height1 = rect.bottom - rect.top;
-            int width2 = calendarIcon.getWidth();
-            int height2 = calendarIcon.getHeight();
-
-            Rect rectweek = new Rect();
-            mWeekPaint.getTextBounds(weekString,0,weekString.length(),rectweek);
-            int widthWeek1 = rectweek.right - rectweek.left;
-            int heightWeek1 = rectweek.bottom - rectweek.top;
-
-            canvas.drawText(dayString,(width2 - width1)/2 - rect.left, 8+(height2 - height1)/2 - rect.top,mDatePaint);
-            canvas.drawText(weekString,(width2 - widthWeek1)/2 - rectweek.left,6+heightWeek1/2- rectweek.top,mWeekPaint);
-            canvas.setBitmap(null);
-            return calendarIcon;
-        }
+        final Canvas canvas = sRenderContext.get().canvas;
+        canvas.setBitmap(calendarIcon);
+
+        final float mDensity = context.getResources().getDisplayMetrics().density;
+
+        Paint mDatePaint = new Paint();
+        Paint mWeekPaint = new Paint();
+        mDatePaint.setTypeface(Typeface.createFromFile("/system/fonts/Roboto-Thin.ttf"));
+        mWeekPaint.setTextSize((int)8F * mDensity);
+        mDatePaint.setTextSize((int)34F * mDensity);
+        mDatePaint.setColor(0xff000000);
+        mWeekPaint.setColor(0xffff0000);
+        mDatePaint.setAntiAlias(true);
+        mWeekPaint.setAntiAlias(true);
+
+        Rect rect = new Rect();
+        mDatePaint.getTextBounds(dayString,0,dayString.length(),rect);
+        int width1 = rect.right - rect.left;
+        int height1 = rect.bottom - rect.top;
+        int width2 = calendarIcon.getWidth();
+        int height2 = calendarIcon.getHeight();
+
+        Rect rectweek = new Rect();
+        mWeekPaint.getTextBounds(weekString,0,weekString.length(),rectweek);
+        int widthWeek1 = rectweek.right - rectweek.left;
+        int heightWeek1 = rectweek.bottom - rectweek.top;
+
+        canvas.drawText(dayString,(width2 - width1)/2 - rect.left, 8+(height2 - height1)/2 - rect.top,mDatePaint);
+        canvas.drawText(weekString,(width2 - widthWeek1)/2 - rectweek.left,6+heightWeek1/2- rectweek.top,mWeekPaint);
+        canvas.setBitmap(null);
+        return calendarIcon;
     }
 	  //add by luoran for modify icon 20170309 start
-    static Bitmap createIconBitmapWithMask(Drawable icon, Bitmap maskIcon, Bitmap bgIcon, Context context) {
-        Bitmap composeBitmap =  createIconBitmap(icon, context);
-        if(maskIcon == null & bgIcon == null) return composeBitmap;
-        int width = composeBitmap.getWidth();
-        int height = composeBitmap.getHeight();
-
-        Bitmap dstBmp = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-        Canvas canvas = new Canvas(dstBmp);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        if(maskIcon != null) {
-            maskIcon = Bitmap.createScaledBitmap(maskIcon, width, height, true);
-            canvas.drawBitmap(maskIcon, 0, 0, paint);
-        }
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_OUT));
-        canvas.drawBitmap(composeBitmap, 0, 0, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_OVER));
-        if(bgIcon != null) {
-            bgIcon = Bitmap.createScaledBitmap(bgIcon, width, height, true);
-            canvas.drawBitmap(bgIcon, 0, 0, paint);
-        }
-        return dstBmp;
+    /**
+     * Cuts {@param mask} out of the icon and fills the transparent area with {@param background}.
+     * Both are drawn unscaled, see {@link ThemedIconCompositor} which prepares them for the icon
+     * size.
+     */
+    static Bitmap createIconBitmapWithMask(Drawable icon, Bitmap mask, Bitmap background,
+            Context context) {
+        Bitmap bitmap = createIconBitmap(icon, context);
+        if (mask == null && background == null) {
+            return bitmap;
+        }
+        // Composite in place, the icon is only kept where the mask is transparent.
+        final Canvas canvas = sRenderContext.get().canvas;
+        canvas.setBitmap(bitmap);
+        if (mask != null) {
+            canvas.drawBitmap(mask, 0, 0, sMaskPaint);
+        }
+        if (background != null) {
+            canvas.drawBitmap(background, 0, 0, sBackgroundPaint);
+        }
+        canvas.setBitmap(null);
+        return bitmap;
     }
      //add by luoran for modify icon 20170309 end
 	//add by luoran for modify icon 20170309 start
@@ -384,65 +392,62 @@ public final class Utilities {
     private static int sIconFrameBSpace = 0;
     private static int sIconFrameLSpace = 0;
     private static int sIconFrameRSpace = 0;
-    public static Bitmap createIconBitmapWithFrame(Drawable icon, Context context) {
-        synchronized (sCanvas) {
+    /**
+     * Draws the icon scaled down over {@param frame}, which must have the icon bitmap size.
+     */
+    static Bitmap createIconBitmapWithFrame(Drawable icon, Bitmap frame, Context context) {
+        final IconRenderContext renderContext = sRenderContext.get();
 	     final int iconBitmapSize = getIconBitmapSize();
-            int width = iconBitmapSize - (sIconFrameLSpace + sIconFrameRSpace);
-            int height = iconBitmapSize - (sIconFrameTSpace + sIconFrameBSpace);
-            int origWidth = width;
-            int origHeight = height;
-
-            if (icon instanceof PaintDrawable) {
-                PaintDrawable painter = (PaintDrawable) icon;
-                painter.setIntrinsicWidth(width);
-                painter.setIntrinsicHeight(height);
-            } else if (icon instanceof BitmapDrawable) {
-                BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
-                Bitmap bitmap = bitmapDrawable.getBitmap();
-                bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
-            }
-
-            int sourceWidth = icon.getIntrinsicWidth();
-            int sourceHeight = icon.getIntrinsicHeight();
-            if (sourceWidth > 0 && sourceHeight > 0) {
-                if (width <= sourceWidth || height <= sourceHeight) {
+        int width = iconBitmapSize - (sIconFrameLSpace + sIconFrameRSpace);
+        int height = iconBitmapSize - (sIconFrameTSpace + sIconFrameBSpace);
+        int origWidth = width;
+        int origHeight = height;
+
+        if (icon instanceof PaintDrawable) {
+            PaintDrawable painter = (PaintDrawable) icon;
+            painter.setIntrinsicWidth(width);
+            painter.setIntrinsicHeight(height);
+        } else if (icon instanceof BitmapDrawable) {
+            BitmapDrawable bitmapDrawable = (BitmapDrawable) icon;
+            Bitmap bitmap = bitmapDrawable.getBitmap();
+            bitmapDrawable.setTargetDensity(context.getResources().getDisplayMetrics());
+        }
+
+        int sourceWidth = icon.getIntrinsicWidth();
+        int sourceHeight = icon.getIntrinsicHeight();
+        if (sourceWidth > 0 && sourceHeight > 0) {
+            if (width <= sourceWidth || height <= sourceHeight) {
 		       width = height = (int)(width * 0.8);
-                } else if (sourceWidth < width && sourceHeight < height) {
-                    // It's small, use the size they gave us.
-                    width = sourceWidth > (int)(origWidth * 0.8) ? (int)(origWidth * 0.8) : sourceWidth;
-                    height = sourceHeight > (int)(origHeight * 0.8) ? (int)(origHeight * 0.8) : sourceHeight;
-                }
+            } else if (sourceWidth < width && sourceHeight < height) {
+                // It's small, use the size they gave us.
+                width = sourceWidth > (int)(origWidth * 0.8) ? (int)(origWidth * 0.8) : sourceWidth;
+                height = sourceHeight > (int)(origHeight * 0.8) ? (int)(origHeight * 0.8) : sourceHeight;
             }
+        }
 
-            int textureWidth = iconBitmapSize;
-            int textureHeight = iconBitmapSize;
-            final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
-                    Bitmap.Config.ARGB_8888);
-            final Canvas canvas = sCanvas;
-            canvas.setBitmap(bitmap);
-
-            final int left = (origWidth-width) / 2 + sIconFrameLSpace;
-            final int top = (origHeight-height) / 2 + sIconFrameTSpace;
-
-            final Resources resources = context.getResources();
-            //Drawable frameDrawable = resources.getDrawable(R.drawable.rgk_icon_background);      
-            Drawable frameDrawable = resources.getDrawable(R.drawable.rgks_bg);
-            Drawable roundDrawable = icon;
-
-            if (frameDrawable != null) {
-                sOldBounds.set(frameDrawable.getBounds());
-                frameDrawable.setBounds(0, 0, iconBitmapSize, iconBitmapSize);
-                frameDrawable.draw(canvas);
-                frameDrawable.setBounds(sOldBounds);
-            }
+        int textureWidth = iconBitmapSize;
+        int textureHeight = iconBitmapSize;
+        final Bitmap bitmap = Bitmap.createBitmap(textureWidth, textureHeight,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = renderContext.canvas;
+        canvas.setBitmap(bitmap);
 
-            sOldBounds.set(roundDrawable.getBounds());
-            roundDrawable.setBounds(left, top , left+width, top+height);
-            roundDrawable.draw(canvas);
-            roundDrawable.setBounds(sOldBounds);
+        final int left = (origWidth-width) / 2 + sIconFrameLSpace;
+        final int top = (origHeight-height) / 2 + sIconFrameTSpace;
 
-            return bitmap;
+        Drawable roundDrawable = icon;
+
+        if (frame != null) {
+            canvas.drawBitmap(frame, 0, 0, null);
         }
+
+        renderContext.oldBounds.set(roundDrawable.getBounds());
+        roundDrawable.setBounds(left, top , left+width, top+height);
+        roundDrawable.draw(canvas);
+        roundDrawable.setBounds(renderContext.oldBounds);
+        canvas.setBitmap(null);
+
+        return bitmap;
     }
     //add by luoran for modify icon 20170309 end
     /**
@@ -980,6 +985,19 @@ public final class Utilities {
         }
     }
 
+    /**
+     * The canvas and scratch objects used to draw icons on a thread.
+     */
+    private static final class IconRenderContext {
+        final Canvas canvas = new Canvas();
+        final Rect oldBounds = new Rect();
+
+        IconRenderContext() {
+            canvas.setDrawFilter(new PaintFlagsDrawFilter(Paint.DITHER_FLAG,
+                    Paint.FILTER_BITMAP_FLAG));
+        }
+    }
+
     ///M:
     public static boolean isSystemApp(AppInfo info) {
         if (info == null) {
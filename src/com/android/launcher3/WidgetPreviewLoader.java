@@ -26,21 +26,21 @@ import android.os.AsyncTask;
 import android.os.Handler;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.LruCache;
 
 import com.android.launcher3.compat.AppWidgetManagerCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.compat.UserManagerCompat;
+import com.android.launcher3.util.BitmapPool;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.SQLiteCacheHelper;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.widget.WidgetCell;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.Iterator;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
@@ -51,16 +51,33 @@ public class WidgetPreviewLoader {
 
     private static final float WIDGET_PREVIEW_ICON_PADDING_PERCENTAGE = 0.25f;
 
+    /**
+     * Previews are loaded by a few tasks at a time, so that a fling does not queue many loads
+     * which are stale by the time they run. At most one of them is a prefetch.
+     */
+    private static final int MAX_RUNNING_TASKS = 2;
+    private static final int MAX_RUNNING_PREFETCH_TASKS = 1;
+
+    /**
+     * A task reading its preview from the DB also reads the previews of up to this many pending
+     * tasks, so that a page of cells is read with a single query.
+     */
+    private static final int MAX_KEYS_PER_READ = 8;
+
+    // Marks a preview which was looked up in the DB and is not there.
+    private static final byte[] NO_PREVIEW = new byte[0];
+
     private final HashMap<String, long[]> mPackageVersions = new HashMap<>();
 
     /**
-     * Weak reference objects, do not prevent their referents from being made finalizable,
-     * finalized, and then reclaimed.
-     * Note: synchronized block used for this variable is expensive and the block should always
-     * be posted to a background thread.
+     * Bitmaps which are neither cached nor shown, available to draw or decode new previews.
      */
-    @Thunk final Set<Bitmap> mUnusedBitmaps =
-            Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    @Thunk final BitmapPool mBitmapPool;
+
+    /**
+     * Recently loaded previews, so that scrolling back to a widget does not decode it again.
+     */
+    @Thunk final PreviewCache mPreviewCache;
 
     private final Context mContext;
     private final IconCache mIconCache;
@@ -72,6 +89,23 @@ public class WidgetPreviewLoader {
     private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
     @Thunk final Handler mWorkerHandler;
 
+    // Tasks waiting for a free slot, most recent last. Only accessed on the UI thread.
+    @Thunk final ArrayList<PreviewLoadTask> mPendingTasks = new ArrayList<>();
+    private int mRunningTaskCount;
+    private int mRunningPrefetchCount;
+
+    // Previews read from the DB on behalf of pending tasks, until the tasks run.
+    private final HashMap<WidgetCacheKey, byte[]> mReadBlobs = new HashMap<>();
+
+    // Previews waiting to be written to the DB. Only accessed on the worker thread.
+    private final ArrayList<ContentValues> mPendingWrites = new ArrayList<>();
+    private final Runnable mFlushWritesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingWrites();
+        }
+    };
+
     public WidgetPreviewLoader(Context context, IconCache iconCache) {
         mContext = context;
         mIconCache = iconCache;
@@ -81,11 +115,15 @@ public class WidgetPreviewLoader {
         mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
         mProfileBadgeMargin = context.getResources()
                 .getDimensionPixelSize(R.dimen.profile_badge_margin);
+        mBitmapPool = new BitmapPool(1024L * context.getResources().getInteger(
+                R.integer.config_widgetPreviewPoolMaxKb));
+        mPreviewCache = new PreviewCache(1024 * context.getResources().getInteger(
+                R.integer.config_widgetPreviewCacheMaxKb));
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread
+     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}, unless it is
+     * already in memory in which case it is applied immediately. Must be called on UI thread
      *
      * @param o either {@link LauncherAppWidgetProviderInfo} or {@link ResolveInfo}
      * @return a request id which can be used to cancel the request.
@@ -95,9 +133,127 @@ public class WidgetPreviewLoader {
         String size = previewWidth + "x" + previewHeight;
         WidgetCacheKey key = getObjectKey(o, size);
 
-        PreviewLoadTask task = new PreviewLoadTask(key, o, previewWidth, previewHeight, caller);
-        task.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
-        return new PreviewLoadRequest(task);
+        Bitmap preview = mPreviewCache.acquire(key);
+        if (preview != null) {
+            caller.applyPreview(preview);
+            return new PreviewLoadRequest(null, preview);
+        }
+
+        // The cell is visible now, a pending prefetch of the same preview is redundant.
+        for (int i = mPendingTasks.size() - 1; i >= 0; i--) {
+            PreviewLoadTask pending = mPendingTasks.get(i);
+            if (pending.isPrefetch() && pending.mKey.equals(key)) {
+                mPendingTasks.remove(i);
+            }
+        }
+
+        PreviewLoadTask task = new PreviewLoadTask(key, o, previewWidth, previewHeight,
+                (Launcher) caller.getContext(), caller);
+        scheduleTask(task);
+        return new PreviewLoadRequest(task, null);
+    }
+
+    /**
+     * Loads the widget preview in memory ahead of time, so that it is available immediately when
+     * its cell is bound. Prefetches run after the loads of the visible cells. Must be called on
+     * UI thread
+     *
+     * @param o either {@link LauncherAppWidgetProviderInfo} or {@link ResolveInfo}
+     * @return a request id which can be used to cancel the request, or null if the preview is
+     *         already in memory.
+     */
+    public PreviewLoadRequest prefetchPreview(Object o, int previewWidth, int previewHeight,
+            Launcher launcher) {
+        String size = previewWidth + "x" + previewHeight;
+        WidgetCacheKey key = getObjectKey(o, size);
+        if (mPreviewCache.contains(key)) {
+            return null;
+        }
+
+        PreviewLoadTask task = new PreviewLoadTask(key, o, previewWidth, previewHeight,
+                launcher, null);
+        scheduleTask(task);
+        return new PreviewLoadRequest(task, null);
+    }
+
+    private void scheduleTask(PreviewLoadTask task) {
+        mPendingTasks.add(task);
+        runPendingTasks();
+    }
+
+    /**
+     * Starts the pending tasks while there are free slots: the most recent visible cell first,
+     * then the most recent prefetch.
+     */
+    private void runPendingTasks() {
+        while (mRunningTaskCount < MAX_RUNNING_TASKS && !mPendingTasks.isEmpty()) {
+            PreviewLoadTask next = null;
+            for (int i = mPendingTasks.size() - 1; i >= 0; i--) {
+                PreviewLoadTask task = mPendingTasks.get(i);
+                if (!task.isPrefetch()) {
+                    next = task;
+                    break;
+                } else if (next == null && mRunningPrefetchCount < MAX_RUNNING_PREFETCH_TASKS) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+
+            mPendingTasks.remove(next);
+            mRunningTaskCount++;
+            if (next.isPrefetch()) {
+                mRunningPrefetchCount++;
+            }
+            next.mStarted = true;
+            next.mBatchKeys = getBatchKeys(next.mKey);
+            next.executeOnExecutor(Utilities.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Returns the keys to read along with the given key: the ones of the most recent pending
+     * tasks with the same user and size, which were not already read.
+     */
+    private ArrayList<WidgetCacheKey> getBatchKeys(WidgetCacheKey key) {
+        ArrayList<WidgetCacheKey> keys = new ArrayList<>();
+        keys.add(key);
+        synchronized (mReadBlobs) {
+            for (int i = mPendingTasks.size() - 1; i >= 0 && keys.size() < MAX_KEYS_PER_READ; i--) {
+                WidgetCacheKey pendingKey = mPendingTasks.get(i).mKey;
+                if (pendingKey.user.equals(key.user) && pendingKey.size.equals(key.size)
+                        && !mReadBlobs.containsKey(pendingKey) && !keys.contains(pendingKey)) {
+                    keys.add(pendingKey);
+                }
+            }
+        }
+        return keys;
+    }
+
+    @Thunk void discardReadBlob(WidgetCacheKey key) {
+        synchronized (mReadBlobs) {
+            mReadBlobs.remove(key);
+        }
+    }
+
+    @Thunk void onTaskFinished(PreviewLoadTask task) {
+        mRunningTaskCount--;
+        if (task.isPrefetch()) {
+            mRunningPrefetchCount--;
+        }
+        runPendingTasks();
+    }
+
+    /**
+     * Drops the previews which are not shown, and the pooled bitmaps.
+     */
+    public void trimMemory() {
+        mPreviewCache.evictAll();
+        mBitmapPool.clear();
+        synchronized (mReadBlobs) {
+            mReadBlobs.clear();
+        }
     }
 
     /**
@@ -148,6 +304,10 @@ public class WidgetPreviewLoader {
         }
     }
 
+    /**
+     * Queues the preview to be written to the DB. Previews queued together are written in a
+     * single transaction. Must be called on the worker thread.
+     */
     @Thunk void writeToDb(WidgetCacheKey key, long[] versions, Bitmap preview) {
         ContentValues values = new ContentValues();
         values.put(CacheDb.COLUMN_COMPONENT, key.componentName.flattenToShortString());
@@ -157,7 +317,19 @@ public class WidgetPreviewLoader {
         values.put(CacheDb.COLUMN_VERSION, versions[0]);
         values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
         values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
-        mDb.insertOrReplace(values);
+        if (mPendingWrites.isEmpty()) {
+            mWorkerHandler.post(mFlushWritesRunnable);
+        }
+        mPendingWrites.add(values);
+    }
+
+    @Thunk void flushPendingWrites() {
+        if (mPendingWrites.isEmpty()) {
+            return;
+        }
+        mWorkerHandler.removeCallbacks(mFlushWritesRunnable);
+        mDb.insertOrReplace(new ArrayList<>(mPendingWrites));
+        mPendingWrites.clear();
     }
 
     public void removePackage(String packageName, UserHandleCompat user) {
@@ -165,15 +337,32 @@ public class WidgetPreviewLoader {
     }
 
     private void removePackage(String packageName, UserHandleCompat user, long userSerial) {
-        synchronized(mPackageVersions) {
-            mPackageVersions.remove(packageName);
-        }
+        removePackageFromMemory(packageName, user);
 
+        // Write the queued previews first, so that the ones of this package are deleted as well.
+        flushPendingWrites();
         mDb.delete(
                 CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
                 new String[]{packageName, Long.toString(userSerial)});
     }
 
+    private void removePackageFromMemory(String packageName, UserHandleCompat user) {
+        synchronized(mPackageVersions) {
+            mPackageVersions.remove(packageName);
+        }
+        mPreviewCache.removePackage(packageName, user);
+        synchronized (mReadBlobs) {
+            Iterator<WidgetCacheKey> keys = mReadBlobs.keySet().iterator();
+            while (keys.hasNext()) {
+                WidgetCacheKey key = keys.next();
+                if (key.componentName.getPackageName().equals(packageName)
+                        && key.user.equals(user)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
     /**
      * Updates the persistent DB:
      *   1. Any preview generated for an old package version is removed
@@ -237,13 +426,20 @@ public class WidgetPreviewLoader {
                 packages.add(pkg);
             }
 
+            ArrayList<String[]> deleteArgs = new ArrayList<>();
             for (int i = 0; i < packagesToDelete.size(); i++) {
                 long userId = packagesToDelete.keyAt(i);
                 UserHandleCompat user = mUserManager.getUserForSerialNumber(userId);
                 for (String pkg : packagesToDelete.valueAt(i)) {
-                    removePackage(pkg, user, userId);
+                    removePackageFromMemory(pkg, user);
+                    deleteArgs.add(new String[]{pkg, Long.toString(userId)});
                 }
             }
+
+            // Delete all the obsolete packages in a single transaction.
+            flushPendingWrites();
+            mDb.delete(CacheDb.COLUMN_PACKAGE + " = ? AND " + CacheDb.COLUMN_USER + " = ?",
+                    deleteArgs);
         } catch (SQLException e) {
             Log.e(TAG, "Error updating widget previews", e);
         } finally {
@@ -255,43 +451,85 @@ public class WidgetPreviewLoader {
 
     /**
      * Reads the preview bitmap from the DB or null if the preview is not in the DB.
+     *
+     * @param batchKeys the keys to read along with this one, if it was not already read
+     */
+    @Thunk Bitmap readFromDb(WidgetCacheKey key, ArrayList<WidgetCacheKey> batchKeys,
+            Bitmap recycle, PreviewLoadTask loadTask) {
+        byte[] blob;
+        synchronized (mReadBlobs) {
+            blob = mReadBlobs.remove(key);
+        }
+        if (blob == null) {
+            blob = readBlobsFromDb(key, batchKeys);
+        }
+        // If cancelled, skip decoding the blob into a bitmap
+        if (blob == NO_PREVIEW || loadTask.isCancelled()) {
+            return null;
+        }
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inBitmap = recycle;
+        // Keep the preview mutable, so that it can be pooled once it is no longer used.
+        opts.inMutable = true;
+        try {
+            return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the previews of all the given keys with a single query, and keeps the ones of the
+     * other keys for their tasks.
+     *
+     * @return the preview of the given key, or {@link #NO_PREVIEW}
      */
-    @Thunk Bitmap readFromDb(WidgetCacheKey key, Bitmap recycle, PreviewLoadTask loadTask) {
+    private byte[] readBlobsFromDb(WidgetCacheKey key, ArrayList<WidgetCacheKey> batchKeys) {
+        if (batchKeys == null) {
+            batchKeys = new ArrayList<>();
+            batchKeys.add(key);
+        }
+        HashMap<String, WidgetCacheKey> keysByComponent = new HashMap<>();
+        for (WidgetCacheKey batchKey : batchKeys) {
+            keysByComponent.put(batchKey.componentName.flattenToShortString(), batchKey);
+        }
+
+        HashMap<WidgetCacheKey, byte[]> blobs = new HashMap<>();
         Cursor cursor = null;
         try {
             cursor = mDb.query(
-                    new String[]{CacheDb.COLUMN_PREVIEW_BITMAP},
-                    CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER + " = ? AND "
-                            + CacheDb.COLUMN_SIZE + " = ?",
+                    new String[]{CacheDb.COLUMN_COMPONENT, CacheDb.COLUMN_PREVIEW_BITMAP},
+                    CacheDb.COLUMN_COMPONENT, new ArrayList<>(keysByComponent.keySet()),
+                    CacheDb.COLUMN_USER + " = ? AND " + CacheDb.COLUMN_SIZE + " = ?",
                     new String[]{
-                            key.componentName.flattenToString(),
                             Long.toString(mUserManager.getSerialNumberForUser(key.user)),
                             key.size
                     });
-            // If cancelled, skip getting the blob and decoding it into a bitmap
-            if (loadTask.isCancelled()) {
-                return null;
-            }
-            if (cursor.moveToNext()) {
-                byte[] blob = cursor.getBlob(0);
-                BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inBitmap = recycle;
-                try {
-                    if (!loadTask.isCancelled()) {
-                        return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
-                    }
-                } catch (Exception e) {
-                    return null;
+            while (cursor.moveToNext()) {
+                WidgetCacheKey rowKey = keysByComponent.get(cursor.getString(0));
+                if (rowKey != null) {
+                    blobs.put(rowKey, cursor.getBlob(1));
                 }
             }
         } catch (SQLException e) {
             Log.w(TAG, "Error loading preview from DB", e);
+            return NO_PREVIEW;
         } finally {
             if (cursor != null) {
                 cursor.close();
             }
         }
-        return null;
+
+        synchronized (mReadBlobs) {
+            for (WidgetCacheKey batchKey : keysByComponent.values()) {
+                if (!batchKey.equals(key)) {
+                    byte[] blob = blobs.get(batchKey);
+                    mReadBlobs.put(batchKey, blob == null ? NO_PREVIEW : blob);
+                }
+            }
+        }
+        byte[] blob = blobs.get(key);
+        return blob == null ? NO_PREVIEW : blob;
     }
 
     @Thunk Bitmap generatePreview(Launcher launcher, Object info, Bitmap recycle,
@@ -519,32 +757,33 @@ public class WidgetPreviewLoader {
     public class PreviewLoadRequest {
 
         @Thunk final PreviewLoadTask mTask;
+        @Thunk final Bitmap mCachedPreview;
 
-        public PreviewLoadRequest(PreviewLoadTask task) {
+        public PreviewLoadRequest(PreviewLoadTask task, Bitmap cachedPreview) {
             mTask = task;
+            mCachedPreview = cachedPreview;
         }
 
         public void cleanup() {
             if (mTask != null) {
+                if (!mTask.mStarted) {
+                    // The task never ran, so it holds no preview.
+                    mPendingTasks.remove(mTask);
+                    discardReadBlob(mTask.mKey);
+                    return;
+                }
                 mTask.cancel(true);
             }
 
-            // This only handles the case where the PreviewLoadTask is cancelled after the task has
-            // successfully completed (including having written to disk when necessary).  In the
-            // other cases where it is cancelled while the task is running, it will be cleaned up
-            // in the tasks's onCancelled() call, and if cancelled while the task is writing to
-            // disk, it will be cancelled in the task's onPostExecute() call.
-            if (mTask.mBitmapToRecycle != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(mTask.mBitmapToRecycle);
-                        }
-                        mTask.mBitmapToRecycle = null;
-                    }
-                });
-            }
+            // The preview may still be written to the DB by a previously posted task, so release
+            // it on the worker thread. If the task is still running, the preview is released in
+            // the tasks's onCancelled() call instead.
+            mWorkerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mPreviewCache.release(mTask != null ? mTask.takePreview() : mCachedPreview);
+                }
+            });
         }
     }
 
@@ -553,16 +792,24 @@ public class WidgetPreviewLoader {
         private final Object mInfo;
         private final int mPreviewHeight;
         private final int mPreviewWidth;
+        private final Launcher mLauncher;
+        // The cell showing the preview, or null for a prefetch.
         private final WidgetCell mCaller;
         @Thunk long[] mVersions;
-        @Thunk Bitmap mBitmapToRecycle;
+        // The keys to read from the DB along with this one. Set when the task is started.
+        @Thunk ArrayList<WidgetCacheKey> mBatchKeys;
+        // Whether the task was handed to the executor. Only accessed on the UI thread.
+        @Thunk boolean mStarted;
+        // The preview acquired from the cache, until it is released.
+        private Bitmap mPreview;
 
         PreviewLoadTask(WidgetCacheKey key, Object info, int previewWidth,
-                int previewHeight, WidgetCell caller) {
+                int previewHeight, Launcher launcher, WidgetCell caller) {
             mKey = key;
             mInfo = info;
             mPreviewHeight = previewHeight;
             mPreviewWidth = previewWidth;
+            mLauncher = launcher;
             mCaller = caller;
             if (DEBUG) {
                 Log.d(TAG, String.format("%s, %s, %d, %d",
@@ -570,36 +817,49 @@ public class WidgetPreviewLoader {
             }
         }
 
+        /**
+         * Returns the preview held by this task, if any, and hands over its release to the caller.
+         */
+        @Thunk synchronized Bitmap takePreview() {
+            Bitmap preview = mPreview;
+            mPreview = null;
+            return preview;
+        }
+
+        private synchronized void holdPreview(Bitmap preview) {
+            mPreview = preview;
+        }
+
+        @Thunk boolean isPrefetch() {
+            return mCaller == null;
+        }
+
         @Override
         protected Bitmap doInBackground(Void... params) {
-            Bitmap unusedBitmap = null;
-
             // If already cancelled before this gets to run in the background, then return early
             if (isCancelled()) {
                 return null;
             }
-            synchronized (mUnusedBitmaps) {
-                // Check if we can re-use a bitmap
-                for (Bitmap candidate : mUnusedBitmaps) {
-                    if (candidate != null && candidate.isMutable() &&
-                            candidate.getWidth() == mPreviewWidth &&
-                            candidate.getHeight() == mPreviewHeight) {
-                        unusedBitmap = candidate;
-                        mUnusedBitmaps.remove(unusedBitmap);
-                        break;
-                    }
-                }
+
+            // Another cell may have loaded the same preview in the meantime.
+            Bitmap preview = mPreviewCache.acquire(mKey);
+            if (preview != null) {
+                discardReadBlob(mKey);
+                holdPreview(preview);
+                return preview;
             }
 
-            // creating a bitmap is expensive. Do not do this inside synchronized block.
+            // Check if we can re-use a bitmap, creating a bitmap is expensive.
+            Bitmap unusedBitmap = mBitmapPool.get(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
             if (unusedBitmap == null) {
                 unusedBitmap = Bitmap.createBitmap(mPreviewWidth, mPreviewHeight, Config.ARGB_8888);
             }
             // If cancelled now, don't bother reading the preview from the DB
             if (isCancelled()) {
-                return unusedBitmap;
+                mBitmapPool.put(unusedBitmap);
+                return null;
             }
-            Bitmap preview = readFromDb(mKey, unusedBitmap, this);
+            preview = readFromDb(mKey, mBatchKeys, unusedBitmap, this);
             // Only consider generating the preview if we have not cancelled the task already
             if (!isCancelled() && preview == null) {
                 // Fetch the version info before we generate the preview, so that, in-case the
@@ -607,59 +867,137 @@ public class WidgetPreviewLoader {
                 // which would gets re-written next time.
                 mVersions = getPackageVersion(mKey.componentName.getPackageName());
 
-                Launcher launcher = (Launcher) mCaller.getContext();
-
                 // it's not in the db... we need to generate it
-                preview = generatePreview(launcher, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
+                preview = generatePreview(mLauncher, mInfo, unusedBitmap, mPreviewWidth,
+                        mPreviewHeight);
+            }
+            if (preview != unusedBitmap) {
+                mBitmapPool.put(unusedBitmap);
+            }
+            if (preview != null) {
+                // Keep the preview even if cancelled, the cell is likely to come back into view.
+                mPreviewCache.putAndAcquire(mKey, preview);
+                holdPreview(preview);
             }
             return preview;
         }
 
         @Override
         protected void onPostExecute(final Bitmap preview) {
-            mCaller.applyPreview(preview);
+            onTaskFinished(this);
+            if (mCaller != null) {
+                mCaller.applyPreview(preview);
+            }
 
-            // Write the generated preview to the DB in the worker thread
-            if (mVersions != null) {
+            // Write the generated preview to the DB in the worker thread. The preview is only
+            // released after that, by the cleanup posted to the same thread. A prefetched preview
+            // is only kept in the cache, so it is released right after.
+            if ((mVersions != null || mCaller == null) && preview != null) {
                 mWorkerHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        if (!isCancelled()) {
-                            // If we are still using this preview, then write it to the DB and then
-                            // let the normal clear mechanism recycle the bitmap
+                        if (mVersions != null) {
                             writeToDb(mKey, mVersions, preview);
-                            mBitmapToRecycle = preview;
-                        } else {
-                            // If we've already cancelled, then skip writing the bitmap to the DB
-                            // and manually add the bitmap back to the recycled set
-                            synchronized (mUnusedBitmaps) {
-                                mUnusedBitmaps.add(preview);
-                            }
+                        }
+                        if (mCaller == null) {
+                            mPreviewCache.release(takePreview());
                         }
                     }
                 });
-            } else {
-                // If we don't need to write to disk, then ensure the preview gets recycled by
-                // the normal clear mechanism
-                mBitmapToRecycle = preview;
             }
         }
 
         @Override
         protected void onCancelled(final Bitmap preview) {
-            // If we've cancelled while the task is running, then can return the bitmap to the
-            // recycled set immediately. Otherwise, it will be recycled after the preview is written
-            // to disk.
+            onTaskFinished(this);
+            discardReadBlob(mKey);
+            // If we've cancelled while the task is running, then release the preview right away.
+            mPreviewCache.release(takePreview());
+        }
+    }
+
+    /**
+     * Decoded previews, bounded by their total size in bytes. Bitmaps leaving the cache are
+     * returned to the pool once no cell is using them anymore, and vice versa.
+     */
+    @Thunk class PreviewCache extends LruCache<WidgetCacheKey, Bitmap> {
+
+        // Number of loaders and cells using each bitmap.
+        private final HashMap<Bitmap, Integer> mUseCounts = new HashMap<>();
+        private final HashSet<Bitmap> mCachedBitmaps = new HashSet<>();
+
+        PreviewCache(int maxBytes) {
+            super(Math.max(1, maxBytes));
+        }
+
+        @Override
+        protected int sizeOf(WidgetCacheKey key, Bitmap value) {
+            return value.getByteCount();
+        }
+
+        /**
+         * Returns whether the preview is cached, marking it as recently used.
+         */
+        synchronized boolean contains(WidgetCacheKey key) {
+            return get(key) != null;
+        }
+
+        /**
+         * Returns the cached preview and marks it as used, or null if it is not cached.
+         */
+        synchronized Bitmap acquire(WidgetCacheKey key) {
+            Bitmap preview = get(key);
             if (preview != null) {
-                mWorkerHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        synchronized (mUnusedBitmaps) {
-                            mUnusedBitmaps.add(preview);
-                        }
-                    }
-                });
+                addUse(preview);
             }
+            return preview;
+        }
+
+        synchronized void putAndAcquire(WidgetCacheKey key, Bitmap preview) {
+            addUse(preview);
+            mCachedBitmaps.add(preview);
+            put(key, preview);
+        }
+
+        synchronized void release(Bitmap preview) {
+            Integer count = preview == null ? null : mUseCounts.get(preview);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mUseCounts.put(preview, count - 1);
+            } else {
+                mUseCounts.remove(preview);
+                if (!mCachedBitmaps.contains(preview)) {
+                    mBitmapPool.put(preview);
+                }
+            }
+        }
+
+        synchronized void removePackage(String packageName, UserHandleCompat user) {
+            for (WidgetCacheKey key : snapshot().keySet()) {
+                if (key.componentName.getPackageName().equals(packageName)
+                        && key.user.equals(user)) {
+                    remove(key);
+                }
+            }
+        }
+
+        @Override
+        protected synchronized void entryRemoved(boolean evicted, WidgetCacheKey key,
+                Bitmap oldValue, Bitmap newValue) {
+            if (oldValue == newValue) {
+                return;
+            }
+            mCachedBitmaps.remove(oldValue);
+            if (!mUseCounts.containsKey(oldValue)) {
+                mBitmapPool.put(oldValue);
+            }
+        }
+
+        private void addUse(Bitmap preview) {
+            Integer count = mUseCounts.get(preview);
+            mUseCounts.put(preview, count == null ? 1 : count + 1);
         }
     }
 
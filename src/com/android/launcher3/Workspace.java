@@ -86,9 +86,11 @@ import com.mediatek.launcher3.LauncherHelper;
 import com.mediatek.launcher3.LauncherLog;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -4884,7 +4886,9 @@ public class Workspace extends PagedView
                     shortcut.applyFromShortcutInfo(si, mIconCache,
                             si.isPromise() != oldPromiseState);
 
-                    if (parent != null) {
+                    if (parent instanceof FolderIcon) {
+                        ((FolderIcon) parent).invalidatePreview();
+                    } else if (parent != null) {
                         parent.invalidate();
                     }
                 }
@@ -4908,6 +4912,9 @@ public class Workspace extends PagedView
                 if (info instanceof ShortcutInfo && v instanceof BubbleTextView
                         && updates.contains(info)) {
                     ((BubbleTextView) v).applyState(false);
+                    if (parent instanceof FolderIcon) {
+                        ((FolderIcon) parent).invalidatePreview();
+                    }
                 } else if (v instanceof PendingAppWidgetHostView
                         && info instanceof LauncherAppWidgetInfo
                         && updates.contains(info)) {
@@ -5150,60 +5157,50 @@ public class Workspace extends PagedView
      * @param unreadNum
      */
     public void updateComponentUnreadChanged(ComponentName component, int unreadNum) {
+        updateComponentsUnreadChanged(Collections.singletonMap(component, unreadNum));
+    }
+
+    /**
+     * M: Update unread number of shortcuts and folders in workspace and hotseat
+     * with the given components, in a single pass. Only the views showing one of
+     * the components are invalidated.
+     *
+     * @param changes the new unread number of each changed component.
+     */
+    public void updateComponentsUnreadChanged(Map<ComponentName, Integer> changes) {
         if (LauncherLog.DEBUG_UNREAD) {
-            LauncherLog.d(TAG, "updateComponentUnreadChanged: component = " + component
-                    + ", unreadNum = " + unreadNum);
+            LauncherLog.d(TAG, "updateComponentsUnreadChanged: changes = " + changes);
         }
         final ArrayList<ShortcutAndWidgetContainer> childrenLayouts =
             getAllShortcutAndWidgetContainers();
-        int childCount = 0;
-        View view = null;
-        Object tag = null;
+        boolean folderContentChanged = false;
         for (ShortcutAndWidgetContainer layout : childrenLayouts) {
-            childCount = layout.getChildCount();
+            final int childCount = layout.getChildCount();
             for (int j = 0; j < childCount; j++) {
-                view = layout.getChildAt(j);
-
+                final View view = layout.getChildAt(j);
                 /// M: ALPS01642099, NULL pointer check
-                if (view != null) {
-                    tag = view.getTag();
-                } else {
-                   if (LauncherLog.DEBUG_UNREAD) {
-                       LauncherLog.d(TAG, "updateComponentUnreadChanged: view is null pointer");
-                   }
-                   continue;
-                }
-                /// M.
-                if (LauncherLog.DEBUG_UNREAD) {
-                    LauncherLog.d(TAG, "updateComponentUnreadChanged: component = " + component
-                            + ",tag = " + tag + ",j = " + j + ",view = " + view);
-                }
+                final Object tag = view != null ? view.getTag() : null;
                 if (tag instanceof ShortcutInfo) {
                     final ShortcutInfo info = (ShortcutInfo) tag;
-                    final Intent intent = info.intent;
-                    final ComponentName componentName = intent.getComponent();
-                    if (LauncherLog.DEBUG_UNREAD) {
-                        LauncherLog.d(TAG, "updateComponentUnreadChanged 2: find component = "
-                                + component + ",intent = " + intent + ",componentName = "
-                                + componentName);
-                    }
-                    if (componentName != null && componentName.equals(component)) {
-                        LauncherLog.d(TAG, "updateComponentUnreadChanged 1: find component = "
-                                + component + ",tag = " + tag + ",j = " + j + ",cellX = "
-                                + info.cellX + ",cellY = " + info.cellY);
+                    final ComponentName componentName = info.intent.getComponent();
+                    final Integer unreadNum =
+                            componentName != null ? changes.get(componentName) : null;
+                    if (unreadNum != null && info.unreadNum != unreadNum) {
                         info.unreadNum = unreadNum;
-                        ((BubbleTextView) view).invalidate();
+                        view.invalidate();
                     }
                 } else if (tag instanceof FolderInfo) {
-                    ((FolderIcon) view).updateFolderUnreadNum(component, unreadNum);
-                    ((FolderIcon) view).invalidate();
+                    if (((FolderIcon) view).updateFolderUnreadNum(changes)) {
+                        view.invalidate();
+                        folderContentChanged = true;
+                    }
                 }
             }
         }
 
         /// M: Update shortcut within folder if open folder exists.
         Folder openFolder = getOpenFolder();
-        if (openFolder != null) {
+        if (openFolder != null && folderContentChanged) {
             openFolder.updateContentUnreadNum();
         }
     }
@@ -53,7 +53,9 @@ import com.android.launcher3.util.ComponentKey;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 
 
@@ -612,20 +614,28 @@ public class AllAppsContainerView extends BaseContainerView implements DragSourc
 //add unread feature by zhaopenglin DWEQLSY-351 start
 /*M: notify the change of updating unread app*/
     public void updateAppsUnreadChanged(ComponentName componentName, int unreadNum) {
+        updateAppsUnreadChanged(Collections.singletonMap(componentName, unreadNum));
+    }
+
+    /*M: notify the change of updating unread apps, only rebinding the changed items*/
+    public void updateAppsUnreadChanged(Map<ComponentName, Integer> changes) {
         List<AlphabeticalAppsList.AdapterItem> mAdapterItems = mApps.getAdapterItems();
         final int size = mAdapterItems.size();
         AlphabeticalAppsList.AdapterItem adapterItem = null;
         for (int i = 0; i < size; i++) {
             adapterItem = mAdapterItems.get(i);
-            if (adapterItem.appInfo != null && adapterItem.appInfo.intent != null
-                    && adapterItem.appInfo.intent.getComponent().equals(componentName)) {
-                adapterItem.appInfo.unreadNum = unreadNum;
+            if (adapterItem.appInfo != null && adapterItem.appInfo.intent != null) {
+                final Integer unreadNum =
+                        changes.get(adapterItem.appInfo.intent.getComponent());
+                if (unreadNum != null && adapterItem.appInfo.unreadNum != unreadNum) {
+                    adapterItem.appInfo.unreadNum = unreadNum;
+                    // Refresh the recycler view
+                    if (mAdapter != null) {
+                        mAdapter.notifyItemChanged(i);
+                    }
+                }
             }
         }
-        // Refresh the recycler view
-        if (mAdapter != null) {
-            mAdapter.notifyDataSetChanged();
-        }
     }
 //add unread feature by zhaopenglin DWEQLSY-351 end
 }
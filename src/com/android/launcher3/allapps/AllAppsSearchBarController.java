@@ -92,7 +92,8 @@ public abstract class AllAppsSearchBarController
             mSearchAlgorithm.cancel(true);
             mCb.clearSearchResult();
         } else {
-            mSearchAlgorithm.cancel(false);
+            // Drop any search still running for the previous query
+            mSearchAlgorithm.cancel(true);
             mSearchAlgorithm.doSearch(query, mCb);
         }
     }
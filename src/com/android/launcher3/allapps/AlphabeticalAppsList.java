@@ -17,8 +17,10 @@ package com.android.launcher3.allapps;
 
 import android.content.Context;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.util.Log;
 import com.android.launcher3.AppInfo;
+import com.android.launcher3.ItemInfo;
 import com.android.launcher3.Launcher;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.MTKUnreadLoader;
@@ -26,15 +28,17 @@ import com.android.launcher3.compat.AlphabeticIndexCompat;
 import com.android.launcher3.compat.UserHandleCompat;
 import com.android.launcher3.model.AppNameComparator;
 import com.android.launcher3.util.ComponentKey;
+import com.android.launcher3.util.Thunk;
 import com.mediatek.launcher3.LauncherLog;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 
 /**
  * The alphabetically sorted list of applications.
@@ -48,6 +52,10 @@ public class AlphabeticalAppsList {
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION = 0;
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS = 1;
 
+    // Updates of more apps than this fraction of the list re-sort the whole list, instead of
+    // inserting each app in place.
+    private static final int INCREMENTAL_UPDATE_MAX_FRACTION = 4;
+
     private final int mFastScrollDistributionMode = FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS;
 
     /**
@@ -169,9 +177,14 @@ public class AlphabeticalAppsList {
 
     private Launcher mLauncher;
 
-    // The set of apps from the system not including predictions
+    // The set of apps from the system not including predictions, kept sorted by mSortComparator
     private final List<AppInfo> mApps = new ArrayList<>();
+    // The locale which mApps and mCachedSectionNames are computed for
+    private Locale mSortLocale;
+    private Comparator<AppInfo> mSortComparator;
     private final HashMap<ComponentKey, AppInfo> mComponentToAppMap = new HashMap<>();
+    // The search index over all the apps
+    private final AppSearchIndex mSearchIndex = new AppSearchIndex();
 
     // The set of filtered apps with the current filter
     private List<AppInfo> mFilteredApps = new ArrayList<>();
@@ -228,6 +241,13 @@ public class AlphabeticalAppsList {
         return mApps;
     }
 
+    /**
+     * Returns the search index over all the apps.
+     */
+    public AppSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
     /**
      * Returns sections of all the current filtered applications.
      */
@@ -301,7 +321,11 @@ public class AlphabeticalAppsList {
     public void setPredictedApps(List<ComponentKey> apps) {
         mPredictedAppComponents.clear();
         mPredictedAppComponents.addAll(apps);
-        onAppsUpdated();
+        if (canUpdateIncrementally(0)) {
+            updateAdapterItems(Collections.<AppInfo>emptySet());
+        } else {
+            onAppsUpdated();
+        }
     }
 
     /**
@@ -309,6 +333,8 @@ public class AlphabeticalAppsList {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mApps.clear();
+        mSearchIndex.clear();
         addApps(apps);
     }
 
@@ -336,78 +362,137 @@ public class AlphabeticalAppsList {
             }
         }
         //add unread feature by zhaopenglin DWEQLSY-351 end
+        boolean incremental = canUpdateIncrementally(apps.size());
         for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+            AppInfo oldApp = mComponentToAppMap.put(app.toComponentKey(), app);
+            if (incremental) {
+                // The title of an updated app may have changed, so insert it again
+                if (oldApp != null) {
+                    removeSortedApp(oldApp);
+                }
+                insertSortedApp(app);
+            }
+        }
+        mSearchIndex.updateApps(apps);
+        if (incremental) {
+            updateAdapterItems(new HashSet<>(apps));
+        } else {
+            onAppsUpdated();
         }
-        onAppsUpdated();
     }
 
     /**
      * Removes some apps from the list.
      */
     public void removeApps(List<AppInfo> apps) {
+        boolean incremental = canUpdateIncrementally(apps.size());
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            AppInfo oldApp = mComponentToAppMap.remove(app.toComponentKey());
+            if (incremental && oldApp != null) {
+                removeSortedApp(oldApp);
+            }
+        }
+        mSearchIndex.removeApps(apps);
+        if (incremental) {
+            updateAdapterItems(Collections.<AppInfo>emptySet());
+        } else {
+            onAppsUpdated();
         }
-        onAppsUpdated();
     }
 
     /**
-     * Updates internals when the set of apps are updated.
+     * Returns whether mApps is sorted for the current locale, and the given number of changed
+     * apps is small enough to insert or remove each app in place rather than re-sorting the list.
      */
-    private void onAppsUpdated() {
-        // Sort the list of apps
-        mApps.clear();
-        mApps.addAll(mComponentToAppMap.values());
-        Collections.sort(mApps, mAppNameComparator.getAppInfoComparator());
-
-        // As a special case for some languages (currently only Simplified Chinese), we may need to
-        // coalesce sections
+    private boolean canUpdateIncrementally(int changedAppCount) {
         Locale curLocale = mLauncher.getResources().getConfiguration().locale;
-        TreeMap<String, ArrayList<AppInfo>> sectionMap = null;
-        boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
-        if (localeRequiresSectionSorting) {
-            // Compute the section headers.  We use a TreeMap with the section name comparator to
-            // ensure that the sections are ordered when we iterate over it later
-            sectionMap = new TreeMap<>(mAppNameComparator.getSectionNameComparator());
-            for (AppInfo info : mApps) {
-                // Add the section to the cache
-                String sectionName = getAndUpdateCachedSectionName(info.title);
-
-                // Add it to the mapping
-                ArrayList<AppInfo> sectionApps = sectionMap.get(sectionName);
-                if (sectionApps == null) {
-                    sectionApps = new ArrayList<>();
-                    sectionMap.put(sectionName, sectionApps);
-                }
-                sectionApps.add(info);
-            }
+        return curLocale.equals(mSortLocale)
+                && changedAppCount * INCREMENTAL_UPDATE_MAX_FRACTION <= mApps.size();
+    }
 
-            // Add each of the section apps to the list in order
-            List<AppInfo> allApps = new ArrayList<>(mApps.size());
-            for (Map.Entry<String, ArrayList<AppInfo>> entry : sectionMap.entrySet()) {
-                allApps.addAll(entry.getValue());
-            }
+    /**
+     * Inserts the app at its sorted position in mApps.
+     */
+    private void insertSortedApp(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mSortComparator);
+        mApps.add(index < 0 ? -index - 1 : index, app);
+    }
 
-            mApps.clear();
-            mApps.addAll(allApps);
-        } else {
-            // Just compute the section headers for use below
-            for (AppInfo info : mApps) {
-                // Add the section to the cache
-                getAndUpdateCachedSectionName(info.title);
+    /**
+     * Removes the app from mApps. The app is looked up by identity, as its title may have changed
+     * since it was inserted.
+     */
+    private void removeSortedApp(AppInfo app) {
+        for (int i = mApps.size() - 1; i >= 0; i--) {
+            if (mApps.get(i) == app) {
+                mApps.remove(i);
+                return;
             }
         }
+    }
+
+    /**
+     * Updates internals when the set of apps are updated, re-sorting all the apps.
+     */
+    private void onAppsUpdated() {
+        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
+        if (!curLocale.equals(mSortLocale)) {
+            mSortLocale = curLocale;
+            mSortComparator = createSortComparator(curLocale);
+        }
+        // Drop the section names of titles which are gone or were computed for another locale,
+        // they are only cached for the apps without a precomputed section name
+        mCachedSectionNames.clear();
+
+        // Sort the list of apps
+        mApps.clear();
+        mApps.addAll(mComponentToAppMap.values());
+        Collections.sort(mApps, mSortComparator);
 
         // Recompose the set of adapter items from the current set of apps
         updateAdapterItems();
     }
 
+    private Comparator<AppInfo> createSortComparator(Locale locale) {
+        final Comparator<ItemInfo> appComparator = mAppNameComparator.getAppInfoComparator();
+        // As a special case for some languages (currently only Simplified Chinese), we may need to
+        // coalesce sections, so the apps are ordered by section first
+        if (locale.equals(Locale.SIMPLIFIED_CHINESE)) {
+            final Comparator<String> sectionComparator =
+                    mAppNameComparator.getSectionNameComparator();
+            return new Comparator<AppInfo>() {
+                @Override
+                public int compare(AppInfo a, AppInfo b) {
+                    int result = sectionComparator.compare(getSectionName(a), getSectionName(b));
+                    return result != 0 ? result : appComparator.compare(a, b);
+                }
+            };
+        }
+        return new Comparator<AppInfo>() {
+            @Override
+            public int compare(AppInfo a, AppInfo b) {
+                return appComparator.compare(a, b);
+            }
+        };
+    }
+
     /**
-     * Updates the set of filtered apps with the current filter.  At this point, we expect
-     * mCachedSectionNames to have been calculated for the set of all apps in mApps.
+     * Updates the set of filtered apps with the current filter, and refreshes the whole list.
      */
     private void updateAdapterItems() {
+        updateAdapterItems(null);
+    }
+
+    /**
+     * Updates the set of filtered apps with the current filter.
+     *
+     * @param updatedApps the apps whose content changed, in which case only the items which
+     *        changed are refreshed, or null to refresh the whole list.
+     */
+    private void updateAdapterItems(Set<AppInfo> updatedApps) {
+        List<AdapterItem> oldAdapterItems = updatedApps != null && mAdapter != null
+                ? new ArrayList<>(mAdapterItems) : null;
+
         SectionInfo lastSectionInfo = null;
         String lastSectionName = null;
         FastScrollSectionInfo lastFastScrollerSectionInfo = null;
@@ -477,7 +562,7 @@ public class AlphabeticalAppsList {
         // Recreate the filtered and sectioned apps (for convenience for the grid layout) from the
         // ordered set of sections
         for (AppInfo info : getFiltersAppInfos()) {
-            String sectionName = getAndUpdateCachedSectionName(info.title);
+            String sectionName = getSectionName(info);
 
             // Create a new section if the section names do not match
             if (lastSectionInfo == null || !sectionName.equals(lastSectionName)) {
@@ -576,11 +661,61 @@ public class AlphabeticalAppsList {
         }
 
         // Refresh the recycler view
-        if (mAdapter != null) {
+        if (oldAdapterItems != null) {
+            notifyItemsChanged(oldAdapterItems, updatedApps);
+        } else if (mAdapter != null) {
             mAdapter.notifyDataSetChanged();
         }
     }
 
+    /**
+     * Notifies the adapter of the range of items which differ from the old items, and of the
+     * items of the updated apps outside of that range.
+     */
+    private void notifyItemsChanged(List<AdapterItem> oldItems, Set<AppInfo> updatedApps) {
+        final int oldSize = oldItems.size();
+        final int newSize = mAdapterItems.size();
+
+        // Skip the items which are the same at the start and at the end of the list
+        int start = 0;
+        while (start < oldSize && start < newSize
+                && isSameItem(oldItems.get(start), mAdapterItems.get(start))) {
+            start++;
+        }
+        int oldEnd = oldSize;
+        int newEnd = newSize;
+        while (oldEnd > start && newEnd > start
+                && isSameItem(oldItems.get(oldEnd - 1), mAdapterItems.get(newEnd - 1))) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        for (int i = 0; i < start; i++) {
+            if (updatedApps.contains(mAdapterItems.get(i).appInfo)) {
+                mAdapter.notifyItemChanged(i);
+            }
+        }
+        int changedCount = Math.min(oldEnd, newEnd) - start;
+        if (changedCount > 0) {
+            mAdapter.notifyItemRangeChanged(start, changedCount);
+        }
+        if (newEnd > oldEnd) {
+            mAdapter.notifyItemRangeInserted(start + changedCount, newEnd - oldEnd);
+        } else if (oldEnd > newEnd) {
+            mAdapter.notifyItemRangeRemoved(start + changedCount, oldEnd - newEnd);
+        }
+        for (int i = newEnd; i < newSize; i++) {
+            if (updatedApps.contains(mAdapterItems.get(i).appInfo)) {
+                mAdapter.notifyItemChanged(i);
+            }
+        }
+    }
+
+    private static boolean isSameItem(AdapterItem oldItem, AdapterItem newItem) {
+        return oldItem.viewType == newItem.viewType && oldItem.appInfo == newItem.appInfo
+                && TextUtils.equals(oldItem.sectionName, newItem.sectionName);
+    }
+
     private List<AppInfo> getFiltersAppInfos() {
         if (mSearchResults == null) {
             return mApps;
@@ -651,6 +786,14 @@ public class AlphabeticalAppsList {
         }
     }
 
+    /**
+     * Returns the section name of the app, as resolved along with its title if possible.
+     */
+    @Thunk String getSectionName(AppInfo info) {
+        return info.hasTitleSortKey() ? info.titleSectionName
+                : getAndUpdateCachedSectionName(info.title);
+    }
+
     /**
      * Returns the cached section name for the given title, recomputing and updating the cache if
      * the title has no cached section name.
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import com.android.launcher3.AppInfo;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the lower-cased words of each app title, sorted, so that searches do not need to split
+ * and lower-case every title for every query.
+ *
+ * The index is kept up to date by {@link AlphabeticalAppsList} as apps are added, updated and
+ * removed. Entries whose title changed behind its back are rebuilt lazily on lookup.
+ * It is safe to query the index from a background thread while it is being updated.
+ */
+public class AppSearchIndex {
+
+    static final Pattern SPLIT_PATTERN = Pattern.compile("[\\s|\\p{javaSpaceChar}]+");
+
+    private final HashMap<ComponentKey, Entry> mEntries = new HashMap<>();
+    private int mVersion;
+
+    /**
+     * Adds or refreshes the entries for the given apps.
+     */
+    public synchronized void updateApps(List<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            ComponentKey key = app.toComponentKey();
+            Entry entry = mEntries.get(key);
+            if (entry == null || !entry.isValidFor(app.title)) {
+                mEntries.put(key, new Entry(app.title));
+            }
+        }
+        mVersion++;
+    }
+
+    public synchronized void removeApps(List<AppInfo> apps) {
+        for (AppInfo app : apps) {
+            mEntries.remove(app.toComponentKey());
+        }
+        mVersion++;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mVersion++;
+    }
+
+    /**
+     * Returns a counter which changes every time the set of indexed apps changes.
+     */
+    public synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns whether every query word is a prefix of some word in the title of the app.
+     *
+     * @param queryWords lower-cased query words, as returned by {@link #splitQuery}.
+     */
+    public synchronized boolean matches(AppInfo info, String[] queryWords) {
+        String[] words = getEntry(info).words;
+        for (String queryWord : queryWords) {
+            // The first word starting with the query word, if any, sorts at the insertion point.
+            int index = Arrays.binarySearch(words, queryWord);
+            if (index < 0) {
+                index = -index - 1;
+                if (index >= words.length || !words[index].startsWith(queryWord)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the lower-cased title of the app starts with the given query.
+     */
+    public synchronized boolean titleStartsWith(AppInfo info, String queryTextLower) {
+        return getEntry(info).lowerCaseTitle.startsWith(queryTextLower);
+    }
+
+    /**
+     * Returns whether every query word appears somewhere in the title of the app.
+     */
+    public synchronized boolean titleContains(AppInfo info, String[] queryWords) {
+        String title = getEntry(info).lowerCaseTitle;
+        for (String queryWord : queryWords) {
+            if (!title.contains(queryWord)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits a search query in its lower-cased words.
+     */
+    public static String[] splitQuery(String query) {
+        return SPLIT_PATTERN.split(query.toLowerCase());
+    }
+
+    private Entry getEntry(AppInfo info) {
+        ComponentKey key = info.toComponentKey();
+        Entry entry = mEntries.get(key);
+        if (entry == null || !entry.isValidFor(info.title)) {
+            entry = new Entry(info.title);
+            mEntries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        final CharSequence title;
+        final String lowerCaseTitle;
+        final String[] words;
+
+        Entry(CharSequence title) {
+            this.title = title;
+            lowerCaseTitle = title == null ? "" : title.toString().toLowerCase();
+            words = SPLIT_PATTERN.split(lowerCaseTitle);
+            Arrays.sort(words);
+        }
+
+        boolean isValidFor(CharSequence newTitle) {
+            if (title == newTitle) {
+                return true;
+            }
+            return title != null && newTitle != null
+                    && title.toString().equals(newTitle.toString());
+        }
+    }
+}
@@ -16,79 +16,195 @@
 package com.android.launcher3.allapps;
 
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 
 import com.android.launcher3.AppInfo;
 import com.android.launcher3.util.ComponentKey;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * The default search implementation.
+ *
+ * Searches run on a background thread and the results are published in stages, best matches
+ * first: apps whose title starts with the query, then apps with a word starting with each query
+ * word, then apps containing each query word. Starting a new search or calling
+ * {@link #cancel(boolean)} with true drops any search still in flight.
  */
 public class DefaultAppSearchAlgorithm {
 
-    private static final Pattern SPLIT_PATTERN = Pattern.compile("[\\s|\\p{javaSpaceChar}]+");
+    // Title starts with the whole query
+    protected static final int STAGE_TITLE_PREFIX = 0;
+    // Every query word is a prefix of a word in the title
+    protected static final int STAGE_WORD_PREFIX = 1;
+    // Every query word appears somewhere in the title
+    protected static final int STAGE_SUBSTRING = 2;
+    private static final int NUM_STAGES = 3;
+
+    // Number of apps matched between two checks for a newer search
+    private static final int CANCEL_CHECK_INTERVAL = 32;
+
+    private static HandlerThread sSearchThread;
 
     private final List<AppInfo> mApps;
+    private final AppSearchIndex mIndex;
     protected final Handler mResultHandler;
+    private final Handler mSearchHandler;
+
+    // Incremented on the main thread for every new or cancelled search.
+    private volatile int mGeneration;
+
+    // The last complete query and its matches, used to narrow down the results as the query is
+    // refined. Only accessed on the search thread.
+    private String mLastQuery;
+    private final ArrayList<AppInfo> mLastMatches = new ArrayList<>();
+    private int mLastIndexVersion;
+    private int mLastAppCount;
 
     public DefaultAppSearchAlgorithm(List<AppInfo> apps) {
+        this(apps, new AppSearchIndex());
+    }
+
+    public DefaultAppSearchAlgorithm(List<AppInfo> apps, AppSearchIndex index) {
         mApps = apps;
+        mIndex = index;
         mResultHandler = new Handler();
+        mSearchHandler = new Handler(getSearchThread().getLooper());
+    }
+
+    private static synchronized HandlerThread getSearchThread() {
+        if (sSearchThread == null) {
+            sSearchThread = new HandlerThread("launcher-search", Process.THREAD_PRIORITY_BACKGROUND);
+            sSearchThread.start();
+        }
+        return sSearchThread;
     }
 
     public void cancel(boolean interruptActiveRequests) {
         if (interruptActiveRequests) {
+            mGeneration++;
+            mSearchHandler.removeCallbacksAndMessages(null);
             mResultHandler.removeCallbacksAndMessages(null);
         }
     }
 
     public void doSearch(final String query,
             final AllAppsSearchBarController.Callbacks callback) {
-        final ArrayList<ComponentKey> result = getTitleMatchResult(query);
-        mResultHandler.post(new Runnable() {
+        final int generation = ++mGeneration;
+        // Snapshot the apps, as the list is only updated on the main thread.
+        final ArrayList<AppInfo> apps = new ArrayList<>(mApps);
+        mSearchHandler.post(new Runnable() {
 
             @Override
             public void run() {
-                callback.onSearchResult(query, result);
+                ArrayList<ComponentKey> result = search(query, apps, generation, callback);
+                if (result != null) {
+                    publishResult(query, result, generation, callback);
+                }
             }
         });
     }
 
     protected ArrayList<ComponentKey> getTitleMatchResult(String query) {
-        // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
+        return search(query, mApps, -1, null);
+    }
+
+    /**
+     * Ranks the apps matching the query. Partial results are published to the callback, if any,
+     * as each stage adds matches.
+     *
+     * @param generation the search generation, or -1 if the search cannot be cancelled.
+     * @return the ranked matches, or null if the search was cancelled.
+     */
+    private ArrayList<ComponentKey> search(String query, List<AppInfo> apps, int generation,
+            AllAppsSearchBarController.Callbacks callback) {
         final String queryTextLower = query.toLowerCase();
-        final String[] queryWords = SPLIT_PATTERN.split(queryTextLower);
+        final String[] queryWords = AppSearchIndex.splitQuery(queryTextLower);
+        final int indexVersion = mIndex.getVersion();
+        final boolean trackMatches = generation >= 0;
 
+        // Every app matching a query also matches any prefix of it, so when the query is only
+        // extended we can filter the previous matches instead of going through all the apps.
+        List<AppInfo> candidates = apps;
+        if (trackMatches) {
+            if (mLastQuery != null && queryTextLower.startsWith(mLastQuery)
+                    && mLastIndexVersion == indexVersion && mLastAppCount == apps.size()) {
+                candidates = new ArrayList<>(mLastMatches);
+            }
+            // Forget the last query until this one completes.
+            mLastQuery = null;
+        }
+
+        final int count = candidates.size();
+        final boolean[] matched = new boolean[count];
         final ArrayList<ComponentKey> result = new ArrayList<>();
-        for (AppInfo info : mApps) {
-            if (matches(info, queryWords)) {
-                result.add(info.toComponentKey());
+        for (int stage = 0; stage < NUM_STAGES; stage++) {
+            final int resultCount = result.size();
+            for (int i = 0; i < count; i++) {
+                if (trackMatches && (i % CANCEL_CHECK_INTERVAL) == 0
+                        && generation != mGeneration) {
+                    return null;
+                }
+                AppInfo info = candidates.get(i);
+                if (!matched[i] && matches(stage, info, queryTextLower, queryWords)) {
+                    matched[i] = true;
+                    result.add(info.toComponentKey());
+                }
+            }
+            if (callback != null && result.size() > resultCount && stage < NUM_STAGES - 1) {
+                publishResult(query, new ArrayList<>(result), generation, callback);
             }
         }
+
+        if (trackMatches) {
+            mLastMatches.clear();
+            for (int i = 0; i < count; i++) {
+                if (matched[i]) {
+                    mLastMatches.add(candidates.get(i));
+                }
+            }
+            mLastQuery = queryTextLower;
+            mLastIndexVersion = indexVersion;
+            mLastAppCount = apps.size();
+        }
         return result;
     }
 
-    protected boolean matches(AppInfo info, String[] queryWords) {
-        String title = info.title.toString();
-        String[] words = SPLIT_PATTERN.split(title.toLowerCase());
-        for (int qi = 0; qi < queryWords.length; qi++) {
-            boolean foundMatch = false;
-            for (int i = 0; i < words.length; i++) {
-                if (words[i].startsWith(queryWords[qi])) {
-                    foundMatch = true;
-                    break;
+    private void publishResult(final String query, final ArrayList<ComponentKey> result,
+            final int generation, final AllAppsSearchBarController.Callbacks callback) {
+        mResultHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                if (generation == mGeneration) {
+                    callback.onSearchResult(query, result);
                 }
             }
-            if (!foundMatch) {
-                // If there is a word in the query that does not match any words in this
-                // title, so skip it.
+        });
+    }
+
+    /**
+     * Returns whether the app matches the query in the given stage. The stages are tried in
+     * order and an app is only reported for the first one it matches.
+     */
+    protected boolean matches(int stage, AppInfo info, String queryTextLower,
+            String[] queryWords) {
+        switch (stage) {
+            case STAGE_TITLE_PREFIX:
+                return mIndex.titleStartsWith(info, queryTextLower);
+            case STAGE_WORD_PREFIX:
+                return matches(info, queryWords);
+            case STAGE_SUBSTRING:
+                return mIndex.titleContains(info, queryWords);
+            default:
                 return false;
-            }
         }
-        return true;
+    }
+
+    protected boolean matches(AppInfo info, String[] queryWords) {
+        // If there is a word in the query that does not match any words in this title, skip it.
+        return mIndex.matches(info, queryWords);
     }
 }
@@ -40,9 +40,17 @@ public class AppNameComparator {
 
             @Override
             public final int compare(ItemInfo a, ItemInfo b) {
-                // Order by the title in the current locale
-                int result = compareTitles(a.title.toString(), b.title.toString());
-                if (result == 0 && a instanceof AppInfo && b instanceof AppInfo) {
+                boolean areApps = a instanceof AppInfo && b instanceof AppInfo;
+                // Order by the title in the current locale, using the precomputed keys if any
+                int result;
+                if (areApps && ((AppInfo) a).hasTitleSortKey()
+                        && ((AppInfo) b).hasTitleSortKey()) {
+                    result = compareSortKeys(
+                            ((AppInfo) a).titleSortKey, ((AppInfo) b).titleSortKey);
+                } else {
+                    result = compareTitles(a.title.toString(), b.title.toString());
+                }
+                if (result == 0 && areApps) {
                     AppInfo aAppInfo = (AppInfo) a;
                     AppInfo bAppInfo = (AppInfo) b;
                     // If two apps have the same title, then order by the component name
@@ -78,15 +86,47 @@ public class AppNameComparator {
         return mSectionNameComparator;
     }
 
+    /**
+     * Returns a sort key for the title, such that comparing the keys of two titles with
+     * {@link #compareSortKeys} gives the same order as comparing the titles.
+     */
+    public byte[] getSortKey(String title) {
+        byte[] collationKey;
+        synchronized (mCollator) {
+            collationKey = mCollator.getCollationKey(title).toByteArray();
+        }
+        // The first byte de-prioritizes the titles that don't start with a letter or digit
+        byte[] key = new byte[collationKey.length + 1];
+        key[0] = (byte) (startsWithLetterOrDigit(title) ? 0 : 1);
+        System.arraycopy(collationKey, 0, key, 1, collationKey.length);
+        return key;
+    }
+
+    /**
+     * Compares two keys returned by {@link #getSortKey}, byte by byte.
+     */
+    public static int compareSortKeys(byte[] keyA, byte[] keyB) {
+        int length = Math.min(keyA.length, keyB.length);
+        for (int i = 0; i < length; i++) {
+            int result = (keyA[i] & 0xff) - (keyB[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return keyA.length - keyB.length;
+    }
+
+    private static boolean startsWithLetterOrDigit(String title) {
+        return (title.length() > 0) && Character.isLetterOrDigit(title.codePointAt(0));
+    }
+
     /**
      * Compares two titles with the same return value semantics as Comparator.
      */
     @Thunk int compareTitles(String titleA, String titleB) {
         // Ensure that we de-prioritize any titles that don't start with a linguistic letter or digit
-        boolean aStartsWithLetter = (titleA.length() > 0) &&
-                Character.isLetterOrDigit(titleA.codePointAt(0));
-        boolean bStartsWithLetter = (titleB.length() > 0) &&
-                Character.isLetterOrDigit(titleB.codePointAt(0));
+        boolean aStartsWithLetter = startsWithLetterOrDigit(titleA);
+        boolean bStartsWithLetter = startsWithLetterOrDigit(titleB);
         if (aStartsWithLetter && !bStartsWithLetter) {
             return -1;
         } else if (!aStartsWithLetter && bStartsWithLetter) {
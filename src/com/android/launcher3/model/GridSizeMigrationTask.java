@@ -10,6 +10,7 @@ import android.content.pm.PackageInfo;
 import android.database.Cursor;
 import android.graphics.Point;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -59,6 +60,15 @@ public class GridSizeMigrationTask {
     private static final float WT_WIDGET_FACTOR = 0.6f;
     private static final float WT_FOLDER_FACTOR = 0.5f;
 
+    // Limits for the search of an optimal placement. When either one is exceeded, the best
+    // placement found so far is used, or a greedy placement if that one is better.
+    private static final int MAX_PLACEMENT_NODES = 200000;
+    private static final long MAX_PLACEMENT_TIME_MS = 250;
+    // Number of search nodes visited between two checks of the time budget
+    private static final int PLACEMENT_TIME_CHECK_INTERVAL = 1024;
+    // Maximum number of occupancy states remembered per placement search
+    private static final int MAX_PLACEMENT_MEMO_SIZE = 50000;
+
     private final Context mContext;
     private final InvariantDeviceProfile mIdp;
 
@@ -69,6 +79,10 @@ public class GridSizeMigrationTask {
     private final ArrayList<DbEntry> mCarryOver = new ArrayList<>();
     private final HashSet<String> mValidPackages;
 
+    // Placement search statistics for the screen being migrated, used for logging.
+    private int mPlacementNodes;
+    private int mPlacementBudgetExceeded;
+
     private final int mSrcX, mSrcY;
     private final int mTrgX, mTrgY;
     private final boolean mShouldRemoveX, mShouldRemoveY;
@@ -264,6 +278,9 @@ public class GridSizeMigrationTask {
      *      (otherwise they are placed on a new screen).
      */
     private void migrateScreen(long screenId) {
+        long screenStartTime = SystemClock.uptimeMillis();
+        mPlacementNodes = 0;
+        mPlacementBudgetExceeded = 0;
         ArrayList<DbEntry> items = loadWorkspaceEntries(screenId);
 
         int removedCol = Integer.MAX_VALUE;
@@ -351,6 +368,13 @@ public class GridSizeMigrationTask {
                 mCarryOver.clear();
             }
         }
+
+        if (DEBUG) {
+            Log.d(TAG, String.format(Locale.ENGLISH,
+                    "Migrated screen %d in %d ms: %d items, %d search nodes, %d budget overruns",
+                    screenId, SystemClock.uptimeMillis() - screenStartTime, items.size(),
+                    mPlacementNodes, mPlacementBudgetExceeded));
+        }
     }
 
     /**
@@ -424,6 +448,15 @@ public class GridSizeMigrationTask {
         return true;
     }
 
+    /**
+     * Finds the placement of a set of items which causes the least weight loss, and then the
+     * least movement.
+     *
+     * The search is a branch-and-bound over the possible positions and sizes of the widgets. It
+     * skips states whose occupancy was already reached at a lower cost, and is bounded in time
+     * and number of visited nodes, after which the best of the placement found so far and a
+     * greedy placement is used.
+     */
     private class OptimalPlacementSolution {
         private final ArrayList<DbEntry> itemsToPlace;
         private final boolean[][] occupied;
@@ -436,6 +469,18 @@ public class GridSizeMigrationTask {
         float lowestMoveCost = Float.MAX_VALUE;
         ArrayList<DbEntry> finalPlacedItems;
 
+        // Occupancy of the grid as a bit mask, used as the memoization key when the grid is small
+        // enough. Bit (y * mTrgX + x) is set when the cell (x, y) is occupied.
+        private final boolean useMemo;
+        private long occupiedMask;
+        // For every item index, the lowest costs seen so far for each occupancy state.
+        private final ArrayList<HashMap<Long, float[]>> memo = new ArrayList<>();
+        private int memoSize;
+
+        private int nodeCount;
+        private long deadline;
+        private boolean budgetExceeded;
+
         public OptimalPlacementSolution(boolean[][] occupied, ArrayList<DbEntry> itemsToPlace) {
             this(occupied, itemsToPlace, false);
         }
@@ -448,10 +493,160 @@ public class GridSizeMigrationTask {
 
             // Sort the items such that larger widgets appear first followed by 1x1 items
             Collections.sort(this.itemsToPlace);
+
+            useMemo = mTrgX * mTrgY <= Long.SIZE;
+            if (useMemo) {
+                for (int x = 0; x < mTrgX; x++) {
+                    for (int y = 0; y < mTrgY; y++) {
+                        if (occupied[x][y]) {
+                            occupiedMask |= cellBit(x, y);
+                        }
+                    }
+                }
+            }
         }
 
         public void find() {
+            deadline = SystemClock.uptimeMillis() + MAX_PLACEMENT_TIME_MS;
             find(0, 0, 0, new ArrayList<DbEntry>());
+            mPlacementNodes += nodeCount;
+
+            if (budgetExceeded) {
+                mPlacementBudgetExceeded++;
+                if (DEBUG) {
+                    Log.d(TAG, "Placement search stopped after " + nodeCount + " nodes for "
+                            + itemsToPlace.size() + " items");
+                }
+                findGreedy();
+            }
+        }
+
+        /**
+         * Places the items one by one at the nearest position where they fit, shrinking the
+         * widgets if required, and keeps it if it is better than the current solution.
+         */
+        private void findGreedy() {
+            boolean[][] greedyOccupied = new boolean[mTrgX][mTrgY];
+            for (int x = 0; x < mTrgX; x++) {
+                System.arraycopy(occupied[x], 0, greedyOccupied[x], 0, mTrgY);
+            }
+
+            float weightLoss = 0;
+            float moveCost = 0;
+            ArrayList<DbEntry> placed = new ArrayList<>();
+            int[] position = new int[2];
+            for (DbEntry item : itemsToPlace) {
+                DbEntry me = item.copy();
+                boolean found = false;
+                // Try the full size first, then the same sizes as the full search.
+                for (int shrink = 0; shrink < 4 && !found; shrink++) {
+                    int w = me.spanX - (shrink & 1);
+                    int h = me.spanY - ((shrink >> 1) & 1);
+                    if (w < Math.max(1, me.minSpanX) || h < Math.max(1, me.minSpanY)) {
+                        continue;
+                    }
+                    if (findNearestVacant(greedyOccupied, me, w, h, position)) {
+                        // Resizing costs 1 per dimension, as in the full search.
+                        int cost = Integer.bitCount(shrink);
+                        if (!ignoreMove && position[0] != me.cellX) cost++;
+                        if (!ignoreMove && position[1] != me.cellY) cost++;
+                        me.cellX = position[0];
+                        me.cellY = position[1];
+                        me.spanX = w;
+                        me.spanY = h;
+                        markCells(greedyOccupied, me, true);
+                        placed.add(me);
+                        moveCost += cost;
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    weightLoss += me.weight;
+                }
+            }
+
+            if (finalPlacedItems == null || (weightLoss < lowestWeightLoss) ||
+                    ((weightLoss == lowestWeightLoss) && (moveCost < lowestMoveCost))) {
+                lowestWeightLoss = weightLoss;
+                lowestMoveCost = moveCost;
+                finalPlacedItems = placed;
+            }
+        }
+
+        private boolean findNearestVacant(boolean[][] grid, DbEntry me, int w, int h,
+                int[] outPosition) {
+            int bestDistance = Integer.MAX_VALUE;
+            for (int y = 0; y < mTrgY; y++) {
+                for (int x = 0; x < mTrgX; x++) {
+                    if (isVacant(grid, x, y, w, h)) {
+                        int dist = ignoreMove ? 0 :
+                                ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
+                        if (dist < bestDistance) {
+                            bestDistance = dist;
+                            outPosition[0] = x;
+                            outPosition[1] = y;
+                        }
+                    }
+                }
+            }
+            return bestDistance != Integer.MAX_VALUE;
+        }
+
+        /**
+         * Returns true if the search should stop at this node, either because the budget is
+         * exhausted, or because the same occupancy was already reached at a lower cost.
+         */
+        private boolean shouldSkip(int index, float weightLoss, float moveCost) {
+            if (budgetExceeded) {
+                return true;
+            }
+            nodeCount++;
+            if (nodeCount > MAX_PLACEMENT_NODES || ((nodeCount % PLACEMENT_TIME_CHECK_INTERVAL)
+                    == 0 && SystemClock.uptimeMillis() > deadline)) {
+                budgetExceeded = true;
+                return true;
+            }
+            if (!useMemo) {
+                return false;
+            }
+
+            // The cost of placing the remaining items only depends on the current occupancy, so
+            // a state reached again at no lower cost cannot lead to a better solution.
+            while (memo.size() <= index) {
+                memo.add(new HashMap<Long, float[]>());
+            }
+            HashMap<Long, float[]> states = memo.get(index);
+            float[] seen = states.get(occupiedMask);
+            if (seen != null) {
+                if (seen[0] <= weightLoss && seen[1] <= moveCost) {
+                    return true;
+                }
+                if ((weightLoss < seen[0]) || ((weightLoss == seen[0]) && (moveCost < seen[1]))) {
+                    seen[0] = weightLoss;
+                    seen[1] = moveCost;
+                }
+            } else if (memoSize < MAX_PLACEMENT_MEMO_SIZE) {
+                states.put(occupiedMask, new float[] {weightLoss, moveCost});
+                memoSize++;
+            }
+            return false;
+        }
+
+        private void place(DbEntry item, boolean val) {
+            markCells(occupied, item, val);
+            if (useMemo) {
+                long mask = 0;
+                for (int i = item.cellX; i < (item.cellX + item.spanX); i++) {
+                    for (int j = item.cellY; j < (item.cellY + item.spanY); j++) {
+                        mask |= cellBit(i, j);
+                    }
+                }
+                occupiedMask = val ? (occupiedMask | mask) : (occupiedMask & ~mask);
+            }
+        }
+
+        private long cellBit(int x, int y) {
+            return 1L << (y * mTrgX + x);
         }
 
         /**
@@ -476,6 +671,8 @@ public class GridSizeMigrationTask {
                 // Keep a deep copy of current configuration as it can change during recursion.
                 finalPlacedItems = deepCopy(itemsPlaced);
                 return;
+            } else if (shouldSkip(index, weightLoss, moveCost)) {
+                return;
             }
 
             DbEntry me = itemsToPlace.get(index);
@@ -511,28 +708,28 @@ public class GridSizeMigrationTask {
 
                         if (isVacant(occupied, x, y, myW, myH)) {
                             // place at this position and continue search.
-                            markCells(occupied, me, true);
+                            place(me, true);
                             find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            place(me, false);
                         }
 
                         // Try resizing horizontally
                         if (myW > me.minSpanX && isVacant(occupied, x, y, myW - 1, myH)) {
                             me.spanX --;
-                            markCells(occupied, me, true);
+                            place(me, true);
                             // 1 extra move cost
                             find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            place(me, false);
                             me.spanX ++;
                         }
 
                         // Try resizing vertically
                         if (myH > me.minSpanY && isVacant(occupied, x, y, myW, myH - 1)) {
                             me.spanY --;
-                            markCells(occupied, me, true);
+                            place(me, true);
                             // 1 extra move cost
                             find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            place(me, false);
                             me.spanY ++;
                         }
 
@@ -541,10 +738,10 @@ public class GridSizeMigrationTask {
                                 isVacant(occupied, x, y, myW - 1, myH - 1)) {
                             me.spanX --;
                             me.spanY --;
-                            markCells(occupied, me, true);
+                            place(me, true);
                             // 2 extra move cost
                             find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
-                            markCells(occupied, me, false);
+                            place(me, false);
                             me.spanX ++;
                             me.spanY ++;
                         }
@@ -591,9 +788,9 @@ public class GridSizeMigrationTask {
                     if (ignoreMove) {
                         newMoveCost = moveCost;
                     }
-                    markCells(occupied, me, true);
+                    place(me, true);
                     find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                    markCells(occupied, me, false);
+                    place(me, false);
                     me.cellX = myX;
                     me.cellY = myY;
 
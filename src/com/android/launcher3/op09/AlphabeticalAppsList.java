@@ -49,6 +49,8 @@ import java.util.Collections;
 /// M: Add for OP customization.
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -212,6 +214,8 @@ public class AlphabeticalAppsList {
     /// M: Modify for OP customization.
     public static final List<AppInfo> mApps = new ArrayList<>();
     private final HashMap<ComponentKey, AppInfo> mComponentToAppMap = new HashMap<>();
+    // The search index over all the apps
+    private final AppSearchIndex mSearchIndex = new AppSearchIndex();
 
     // The set of filtered apps with the current filter
     private List<AppInfo> mFilteredApps = new ArrayList<>();
@@ -290,6 +294,13 @@ public class AlphabeticalAppsList {
         return mApps;
     }
 
+    /**
+     * Returns the search index over all the apps.
+     */
+    public AppSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
     /**
      * Returns sections of all the current filtered applications.
      */
@@ -371,6 +382,7 @@ public class AlphabeticalAppsList {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mSearchIndex.clear();
         addApps(apps);
     }
 
@@ -385,7 +397,12 @@ public class AlphabeticalAppsList {
                 final AppInfo appInfo = apps.get(i);
                 appInfo.screenId = 0;
                 mItemsBackup.add(appInfo);
-                updateAllItemOrderByPos(mItemsBackup);
+            }
+            // The new apps are appended, so ordering once gives them the same positions as
+            // ordering after each of them.
+            updateAllItemOrderByPos(mItemsBackup);
+            for (int i = 0; i < appsCount; i++) {
+                final AppInfo appInfo = apps.get(i);
                 LauncherModelPluginEx.addAllAppsItemToDatabase(mLauncher, appInfo,
                     (int) appInfo.screenId, appInfo.cellX, appInfo.cellY, false);
             }
@@ -408,6 +425,7 @@ public class AlphabeticalAppsList {
         for (AppInfo app : apps) {
             mComponentToAppMap.put(app.toComponentKey(), app);
         }
+        mSearchIndex.updateApps(apps);
         onAppsUpdated();
     }
 
@@ -417,16 +435,18 @@ public class AlphabeticalAppsList {
     public void removeApps(List<AppInfo> apps) {
         /// M: Add for OP customization. @{
         if (mSupportEditAndHideApps) {
+            final HashSet<ComponentName> removedComponents = new HashSet<>();
             for (AppInfo info : apps) {
-                for (ItemInfo iteminfo : mItemsBackup) {
-                    if (iteminfo instanceof AppInfo) {
-                        ComponentName componentName = ((AppInfo) iteminfo).componentName;
-                        if (info.componentName.equals(componentName)) {
-                            mItemsBackup.remove(iteminfo);
-                            deleteItemInDatabase(iteminfo);
-                            break;
-                        }
-                    }
+                removedComponents.add(info.componentName);
+            }
+            // Remove the first item of each component in a single pass over the list.
+            final Iterator<ItemInfo> iterator = mItemsBackup.iterator();
+            while (iterator.hasNext() && !removedComponents.isEmpty()) {
+                final ItemInfo iteminfo = iterator.next();
+                if (iteminfo instanceof AppInfo
+                        && removedComponents.remove(((AppInfo) iteminfo).componentName)) {
+                    iterator.remove();
+                    deleteItemInDatabase(iteminfo);
                 }
             }
             hideOrRemoveApps(apps, true);
@@ -438,6 +458,7 @@ public class AlphabeticalAppsList {
         for (AppInfo app : apps) {
             mComponentToAppMap.remove(app.toComponentKey());
         }
+        mSearchIndex.removeApps(apps);
         onAppsUpdated();
     }
 
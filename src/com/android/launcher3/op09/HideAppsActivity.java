@@ -43,16 +43,9 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.pm.IPackageStatsObserver;
-import android.content.pm.PackageManager;
 import android.content.pm.PackageStats;
 import android.graphics.Bitmap;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
-import android.os.Process;
 import android.text.format.Formatter;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
@@ -69,8 +62,8 @@ import com.android.launcher3.allapps.AlphabeticalAppsList;
 import com.android.launcher3.model.AppNameComparator;
 /// M: Add for OP customization.
 import com.android.launcher3.op.LauncherLog;
+import com.android.launcher3.util.Thunk;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -88,6 +81,8 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
     private static final int SIZE_UNKNOWN = -1;
     private static final int SIZE_INVALID = -2;
 
+    private static final int REFRESH_DELAY_MS = 100;
+
     private List<AppInfo> mApps = new ArrayList<AppInfo>();
     //Used to recorder all apps original state when enter HideAppsActivity.
     private ArrayList<Boolean> mOriginalState = new ArrayList<Boolean>();
@@ -95,8 +90,8 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
     private AppsAdapter mAdapter;
 
     private HashMap<String, AppEntry> mEntriesMap = new HashMap<String, AppEntry>();
-    private HandlerThread mThread;
-    private BackgroundHandler mHandler;
+    // Whether a list refresh is scheduled, guarded by mEntriesMap.
+    private boolean mRefreshPending;
 
     private final BroadcastReceiver mPackageChangeReceiver = new BroadcastReceiver() {
         @Override
@@ -149,111 +144,69 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
     }
 
     /**
-    * M: this handler is used to compute the size info and notify data changed.
+    * M: this callback is used to update the size info and notify data changed.
     */
-    class BackgroundHandler extends Handler {
-        static final int MSG_LOAD_SIZE = 0x0001;
-
-        final IPackageStatsObserver.Stub mStatsObserver = new IPackageStatsObserver.Stub() {
-            public void onGetStatsCompleted(PackageStats stats, boolean succeeded) {
-                synchronized (mEntriesMap) {
-                    boolean sizeChanged = false;
-                    AppEntry entry = mEntriesMap.get(stats.packageName);
-                    if (entry != null) {
-                        long externalCodeSize = stats.externalCodeSize + stats.externalObbSize;
-                        long externalDataSize = stats.externalDataSize + stats.externalMediaSize
-                                + stats.externalCacheSize;
-                        long newSize = externalCodeSize + externalDataSize
-                                + getTotalInternalSize(stats);
-                        if (entry.mSize != newSize || entry.mCacheSize != stats.cacheSize
-                                || entry.mCodeSize != stats.codeSize
-                                || entry.mDataSize != stats.dataSize
-                                || entry.mExternalCodeSize != externalCodeSize
-                                || entry.mExternalDataSize != externalDataSize
-                                || entry.mExternalCacheSize != stats.externalCacheSize) {
-                            entry.mSize = newSize;
-                            entry.mCacheSize = stats.cacheSize;
-                            entry.mCodeSize = stats.codeSize;
-                            entry.mDataSize = stats.dataSize;
-                            entry.mExternalCodeSize = externalCodeSize;
-                            entry.mExternalDataSize = externalDataSize;
-                            entry.mExternalCacheSize = stats.externalCacheSize;
-                            entry.mInternalSize = getTotalInternalSize(stats);
-                            entry.mExternalSize = getTotalExternalSize(stats);
-                            sizeChanged = true;
-                        }
-                        // Update size info
-                        entry.mSizeStr = getSizeStr(entry.mSize);
-                        entry.mInternalSizeStr = getSizeStr(entry.mInternalSize);
-                        entry.mExternalSizeStr = getSizeStr(entry.mExternalSize);
-
-                        if (sizeChanged) {
-                            // Update the listview item text
-                            notifyDataChanged();
-                        }
-                        // Query another one if needed
-                        Message msg = mHandler.obtainMessage(MSG_LOAD_SIZE);
-                        mHandler.sendMessage(msg);
+    private final PackageSizeLoader.Callbacks mSizeCallbacks = new PackageSizeLoader.Callbacks() {
+        @Override
+        public void onPackageSizeLoaded(PackageStats stats) {
+            synchronized (mEntriesMap) {
+                boolean sizeChanged = false;
+                AppEntry entry = mEntriesMap.get(stats.packageName);
+                if (entry != null) {
+                    long externalCodeSize = stats.externalCodeSize + stats.externalObbSize;
+                    long externalDataSize = stats.externalDataSize + stats.externalMediaSize
+                            + stats.externalCacheSize;
+                    long newSize = externalCodeSize + externalDataSize
+                            + getTotalInternalSize(stats);
+                    if (entry.mSize != newSize || entry.mCacheSize != stats.cacheSize
+                            || entry.mCodeSize != stats.codeSize
+                            || entry.mDataSize != stats.dataSize
+                            || entry.mExternalCodeSize != externalCodeSize
+                            || entry.mExternalDataSize != externalDataSize
+                            || entry.mExternalCacheSize != stats.externalCacheSize) {
+                        entry.mSize = newSize;
+                        entry.mCacheSize = stats.cacheSize;
+                        entry.mCodeSize = stats.codeSize;
+                        entry.mDataSize = stats.dataSize;
+                        entry.mExternalCodeSize = externalCodeSize;
+                        entry.mExternalDataSize = externalDataSize;
+                        entry.mExternalCacheSize = stats.externalCacheSize;
+                        entry.mInternalSize = getTotalInternalSize(stats);
+                        entry.mExternalSize = getTotalExternalSize(stats);
+                        sizeChanged = true;
+                    }
+                    // Update size info
+                    entry.mSizeStr = getSizeStr(entry.mSize);
+                    entry.mInternalSizeStr = getSizeStr(entry.mInternalSize);
+                    entry.mExternalSizeStr = getSizeStr(entry.mExternalSize);
+
+                    if (sizeChanged) {
+                        // Update the listview item text
+                        notifyDataChanged();
                     }
                 }
             }
-        };
-
-        BackgroundHandler(Looper looper) {
-            super(looper);
         }
+    };
 
+    private final Runnable mRefreshRunnable = new Runnable() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_LOAD_SIZE:
-                    synchronized (mEntriesMap) {
-                        String pkgName = requestComputePkgSize();
-                        if (pkgName != null) {
-                            PackageManager pm = HideAppsActivity.this.getPackageManager();
-                            try {
-                                Method getPackageSizeInfo = pm.getClass().getMethod(
-                                    "getPackageSizeInfo",
-                                    new Class[] { String.class, IPackageStatsObserver.class });
-                                getPackageSizeInfo.invoke(pm,
-                                    new Object[] { pkgName, mStatsObserver });
-                            } catch (Exception e) {
-                                LauncherLog.e(TAG, "load size fail: " + e);
-                            }
-                        }
-                    }
-                    break;
-
-                default:
-                    break;
+        public void run() {
+            synchronized (mEntriesMap) {
+                mRefreshPending = false;
             }
+            mAdapter.notifyDataSetChanged();
         }
+    };
 
-        String requestComputePkgSize() {
-            final int appSize = mApps.size();
-            for (int i = 0; i < appSize; i++) {
-                String pkgName = mApps.get(i).componentName.getPackageName();
-                if (pkgName != null) {
-                    AppEntry entry = mEntriesMap.get(pkgName);
-                    if (entry != null && entry.mSize == SIZE_UNKNOWN) {
-                        // Initilized size to be shown for user
-                        entry.mSize = 0;
-                        return pkgName;
-                    }
-                }
-            }
-            return null;
-        }
-    }
-
-    private void notifyDataChanged() {
-        if (mAdapter != null) {
-            getListView().post(new Runnable() {
-                @Override
-                public void run() {
-                    mAdapter.notifyDataSetChanged();
-                }
-            });
+    /**
+     * Refreshes the list once for all the sizes loaded within REFRESH_DELAY_MS. Called with
+     * mEntriesMap locked.
+     */
+    @Thunk void notifyDataChanged() {
+        if (mAdapter != null && !mRefreshPending) {
+            mRefreshPending = true;
+            getListView().postDelayed(mRefreshRunnable, REFRESH_DELAY_MS);
         }
     }
 
@@ -283,9 +236,6 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.hide_list);
-        mThread = new HandlerThread("HideAppsActivity.worker", Process.THREAD_PRIORITY_BACKGROUND);
-        mThread.start();
-        mHandler = new BackgroundHandler(mThread.getLooper());
 
         // Get all apps information, icon, title, size, show or hide?
         init();
@@ -313,6 +263,8 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
         }
 
         unregisterReceiver(mPackageChangeReceiver);
+        PackageSizeLoader.getInstance(this).cancel(mSizeCallbacks);
+        getListView().removeCallbacks(mRefreshRunnable);
         super.onDestroy();
     }
 
@@ -321,14 +273,10 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
             mApps.clear();
         }
 
-        if (!mEntriesMap.isEmpty()) {
+        synchronized (mEntriesMap) {
             mEntriesMap.clear();
         }
 
-        if (mThread.isAlive()) {
-            mThread.interrupt();
-        }
-
         if (!AlphabeticalAppsList.sShowAndHideApps.isEmpty()) {
             AlphabeticalAppsList.sShowAndHideApps.clear();
         }
@@ -381,10 +329,15 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
         // Now all apps are present.
         int index = 0;
         final int appSize = mApps.size();
+        final ArrayList<String> packageNames = new ArrayList<String>(appSize);
         for (int i = 0; i < appSize; i++) {
             AppInfo info = mApps.get(i);
             // For query package physical memory size quickly
-            mEntriesMap.put(info.componentName.getPackageName(), new AppEntry(info));
+            final String packageName = info.componentName.getPackageName();
+            synchronized (mEntriesMap) {
+                mEntriesMap.put(packageName, new AppEntry(info));
+            }
+            packageNames.add(packageName);
 
             if (info != null) {
                 mOriginalState.add(info.isVisible);
@@ -401,8 +354,8 @@ public class HideAppsActivity extends ListActivity implements AdapterView.OnItem
         }
 
 
-        // Now start to query package size
-        mHandler.sendEmptyMessage(BackgroundHandler.MSG_LOAD_SIZE);
+        // Now start to query package size, in the order of the list
+        PackageSizeLoader.getInstance(this).loadSizes(packageNames, mSizeCallbacks);
     }
 
     @Override
@@ -3636,6 +3636,9 @@ public class Launcher extends Activity
 
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
+
+            // Drop the decoded widget previews which are not shown.
+            LauncherAppState.getInstance().getWidgetCache().trimMemory();
         }
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
@@ -66,6 +66,8 @@ import com.android.launcher3.op.LauncherLog;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.CursorIconInfo;
 import com.android.launcher3.util.FlagOp;
+import com.android.launcher3.util.IconRenderExecutor;
+import com.android.launcher3.util.IconRenderExecutor.IndexedTask;
 import com.android.launcher3.util.LongArrayMap;
 import com.android.launcher3.util.ManagedProfileHeuristic;
 import com.android.launcher3.util.PackageManagerHelper;
@@ -124,6 +126,8 @@ public class LauncherModel extends BroadcastReceiver
         sWorkerThread.start();
     }
     @Thunk static final Handler sWorker = new Handler(sWorkerThread.getLooper());
+    // Batches the item writes, anything posted to sWorker must post the pending writes first.
+    @Thunk static final ItemWriteQueue sWriteQueue = new ItemWriteQueue(sWorker);
 
     // We start off with everything not loaded.  After that, we assume that
     // our monitoring of the package manager provides all updates and we never
@@ -293,6 +297,7 @@ public class LauncherModel extends BroadcastReceiver
             r.run();
         } else {
             // If we are not on the worker thread, then post to the worker handler
+            sWriteQueue.postPendingWrites();
             sWorker.post(r);
         }
     }
@@ -741,7 +746,6 @@ public class LauncherModel extends BroadcastReceiver
     static void updateItemInDatabaseHelper(Context context, final ContentValues values,
             final ItemInfo item, final String callingFunction) {
         final long itemId = item.id;
-        final Uri uri = LauncherSettings.Favorites.getContentUri(itemId);
         final ContentResolver cr = context.getContentResolver();
 
         if (LauncherLog.DEBUG) {
@@ -752,11 +756,10 @@ public class LauncherModel extends BroadcastReceiver
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                cr.update(uri, values, null, null);
                 updateItemArrays(item, itemId, stackTrace);
             }
         };
-        runOnWorkerThread(r);
+        sWriteQueue.update(cr, itemId, values, r);
     }
 
     static void updateItemsInDatabaseHelper(Context context,
@@ -765,29 +768,17 @@ public class LauncherModel extends BroadcastReceiver
         final ContentResolver cr = context.getContentResolver();
 
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        Runnable r = new Runnable() {
-            public void run() {
-                ArrayList<ContentProviderOperation> ops =
-                        new ArrayList<ContentProviderOperation>();
-                int count = items.size();
-                for (int i = 0; i < count; i++) {
-                    ItemInfo item = items.get(i);
-                    final long itemId = item.id;
-                    final Uri uri = LauncherSettings.Favorites.getContentUri(itemId);
-                    ContentValues values = valuesList.get(i);
-
-                    ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
+        int count = items.size();
+        for (int i = 0; i < count; i++) {
+            final ItemInfo item = items.get(i);
+            final long itemId = item.id;
+            Runnable r = new Runnable() {
+                public void run() {
                     updateItemArrays(item, itemId, stackTrace);
-
-                }
-                try {
-                    cr.applyBatch(LauncherProvider.AUTHORITY, ops);
-                } catch (Exception e) {
-                    e.printStackTrace();
                 }
-            }
-        };
-        runOnWorkerThread(r);
+            };
+            sWriteQueue.update(cr, itemId, valuesList.get(i), r);
+        }
     }
 
     static void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
@@ -1088,8 +1079,6 @@ public class LauncherModel extends BroadcastReceiver
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
         Runnable r = new Runnable() {
             public void run() {
-                cr.insert(LauncherSettings.Favorites.CONTENT_URI, values);
-
                 // Lock on mBgLock *after* the db operation
                 synchronized (sBgLock) {
                     checkItemInfoLocked(item.id, item, stackTrace);
@@ -1127,7 +1116,7 @@ public class LauncherModel extends BroadcastReceiver
                 }
             }
         };
-        runOnWorkerThread(r);
+        sWriteQueue.insert(cr, item.id, values, r);
     }
 
     /**
@@ -1173,12 +1162,9 @@ public class LauncherModel extends BroadcastReceiver
     static void deleteItemsFromDatabase(Context context,
             final ArrayList<? extends ItemInfo> items) {
         final ContentResolver cr = context.getContentResolver();
-        Runnable r = new Runnable() {
-            public void run() {
-                for (ItemInfo item : items) {
-                    final Uri uri = LauncherSettings.Favorites.getContentUri(item.id);
-                    cr.delete(uri, null, null);
-
+        for (final ItemInfo item : items) {
+            Runnable r = new Runnable() {
+                public void run() {
                     // Lock on mBgLock *after* the db operation
                     synchronized (sBgLock) {
                         switch (item.itemType) {
@@ -1207,9 +1193,9 @@ public class LauncherModel extends BroadcastReceiver
                         sBgItemsIdMap.remove(item.id);
                     }
                 }
-            }
-        };
-        runOnWorkerThread(r);
+            };
+            sWriteQueue.delete(cr, item.id, r);
+        }
     }
 
     /**
@@ -1502,6 +1488,7 @@ public class LauncherModel extends BroadcastReceiver
                     mLoaderTask.runBindSynchronousPage(synchronousBindPage);
                 } else {
                     sWorkerThread.setPriority(Thread.NORM_PRIORITY);
+                    sWriteQueue.postPendingWrites();
                     sWorker.post(mLoaderTask);
                 }
             }
@@ -3039,12 +3026,28 @@ public class LauncherModel extends BroadcastReceiver
                 if (apps == null || apps.isEmpty()) {
                     return;
                 }
-                boolean quietMode = mUserManager.isQuietModeEnabled(user);
-                // Create the ApplicationInfos
-                for (int i = 0; i < apps.size(); i++) {
-                    LauncherActivityInfoCompat app = apps.get(i);
-                    // This builds the icon bitmaps.
-                    mBgAllAppsList.add(new AppInfo(mContext, app, user, mIconCache, quietMode));
+                final boolean quietMode = mUserManager.isQuietModeEnabled(user);
+                // Read the cached icons of all the apps at once.
+                ArrayList<ComponentName> components = new ArrayList<>(apps.size());
+                for (LauncherActivityInfoCompat app : apps) {
+                    components.add(app.getComponentName());
+                }
+                mIconCache.preloadEntries(components, user, true /* useLowResIcon */);
+                // Create the ApplicationInfos. This builds the icon bitmaps, so they are created
+                // in parallel, and added in order.
+                final Context context = mContext;
+                final IconCache iconCache = mIconCache;
+                final UserHandleCompat appsUser = user;
+                final AppInfo[] appInfos = new AppInfo[apps.size()];
+                IconRenderExecutor.runInParallel(appInfos.length, new IndexedTask() {
+                    @Override
+                    public void run(int index) {
+                        appInfos[index] = new AppInfo(
+                                context, apps.get(index), appsUser, iconCache, quietMode);
+                    }
+                });
+                for (AppInfo info : appInfos) {
+                    mBgAllAppsList.add(info);
                 }
 
                 final ManagedProfileHeuristic heuristic =
@@ -3166,6 +3169,7 @@ public class LauncherModel extends BroadcastReceiver
     }
 
     void enqueuePackageUpdated(PackageUpdatedTask task) {
+        sWriteQueue.postPendingWrites();
         sWorker.post(task);
     }
 
@@ -1008,89 +1008,74 @@ public class LauncherModelPluginEx {
     /**
      * M: To dispose the APKs which are in db but can't query from
      * PackageManager, so after remove them, the left ones need reorder.
+     *
+     * The removed positions are grouped by screen first, so each item is moved at most once:
+     * it moves forward by the number of removed positions before it in its screen, and back by
+     * the number of screens before it which became empty.
      */
     private void reorderAllAppsForInvalidAppsRemoved(ArrayList<ItemInfo> allApps,
             ArrayList<ItemPosition> itemsRemoved) {
-        final ArrayList<ItemInfo> itemsInTheSameScreenButAfterPosition
-                                        = new ArrayList<ItemInfo>();
-        final ArrayList<ItemInfo> itemsInTheAfterScreen = new ArrayList<ItemInfo>();
         LauncherLog.d(TAG, "reorderAllAppsForInvalidAppsRemoved: itemsRemoved = "
                 + itemsRemoved);
 
+        final HashMap<Integer, ArrayList<Integer>> removedPosInScreens =
+                new HashMap<Integer, ArrayList<Integer>>();
         for (ItemPosition removedItemPosition : itemsRemoved) {
             if (LauncherLog.DEBUG) {
                 LauncherLog.d(TAG, "reorderAllApps: The removed items is at screen="
                     + removedItemPosition.mScreen + ", pos=" + removedItemPosition.mPos);
             }
-            itemsInTheSameScreenButAfterPosition.clear();
-            itemsInTheAfterScreen.clear();
-            boolean bOnlyOneItemInTheScreen = true;
-
-            for (ItemInfo appInfo : allApps) {
-                if (appInfo.screenId == removedItemPosition.mScreen
-                        && appInfo.mPos > removedItemPosition.mPos) {
-                    if (LauncherLog.DEBUG) {
-                        LauncherLog.d(TAG, "Add one item which are in the same screen "
-                            + "with removed item and at cellX=" + appInfo.cellX + ", cellY="
-                            + appInfo.cellY);
-                    }
-                    itemsInTheSameScreenButAfterPosition.add(appInfo);
-                }
-
-                if (bOnlyOneItemInTheScreen && appInfo.screenId
-                               == removedItemPosition.mScreen) {
-                    bOnlyOneItemInTheScreen = false;
-                }
+            ArrayList<Integer> removedPos = removedPosInScreens.get(removedItemPosition.mScreen);
+            if (removedPos == null) {
+                removedPos = new ArrayList<Integer>();
+                removedPosInScreens.put(removedItemPosition.mScreen, removedPos);
             }
+            removedPos.add(removedItemPosition.mPos);
+        }
 
-            if (bOnlyOneItemInTheScreen) {
-                for (ItemInfo appInfo : allApps) {
-                    if (appInfo.screenId > removedItemPosition.mScreen) {
-                        itemsInTheAfterScreen.add(appInfo);
-                    }
-                }
+        // Screens which only held removed items are dropped.
+        final HashSet<Long> occupiedScreens = new HashSet<Long>();
+        for (ItemInfo appInfo : allApps) {
+            occupiedScreens.add(appInfo.screenId);
+        }
+        final ArrayList<Integer> emptyScreens = new ArrayList<Integer>();
+        for (Integer screen : removedPosInScreens.keySet()) {
+            if (!occupiedScreens.contains((long) screen)) {
+                emptyScreens.add(screen);
             }
+        }
 
-            if (itemsInTheSameScreenButAfterPosition != null
-                    && itemsInTheSameScreenButAfterPosition.size() > 0) {
-                if (LauncherLog.DEBUG) {
-                    LauncherLog.d(TAG, "reorderAllApps: itemsInTheSameScreenAndAfterPosition is "
-                        + itemsInTheSameScreenButAfterPosition.size());
-                }
-                int newX = -1;
-                int newY = -1;
-                for (ItemInfo appInfo : itemsInTheSameScreenButAfterPosition) {
-                    appInfo.mPos -= 1;
+        for (ItemInfo appInfo : allApps) {
+            final int screen = (int) appInfo.screenId;
+            final int posShift = countLessThan(removedPosInScreens.get(screen), appInfo.mPos);
+            final int screenShift = countLessThan(emptyScreens, screen);
+            if (posShift == 0 && screenShift == 0) {
+                continue;
+            }
 
-                    newX = appInfo.mPos % AllApps.sAppsCellCountX;
-                    newY = appInfo.mPos / AllApps.sAppsCellCountX;
-                    if (LauncherLog.DEBUG) {
-                        LauncherLog.d(TAG, "reorderAllApps: move item from (" + appInfo.cellX + ","
-                            + appInfo.cellY + ") to (" + newX + "," + newY + ").");
-                    }
+            appInfo.mPos -= posShift;
+            final int newX = appInfo.mPos % AllApps.sAppsCellCountX;
+            final int newY = appInfo.mPos / AllApps.sAppsCellCountX;
+            if (LauncherLog.DEBUG) {
+                LauncherLog.d(TAG, "reorderAllApps: move item from (" + screen + ","
+                    + appInfo.cellX + "," + appInfo.cellY + ") to (" + (screen - screenShift)
+                    + "," + newX + "," + newY + ").");
+            }
+            moveAllAppsItemInDatabase(mContext, appInfo, screen - screenShift, newX, newY);
+        }
+    }
 
-                    moveAllAppsItemInDatabase(mContext, appInfo, (int) appInfo.screenId,
-                                                    newX, newY);
-                }
-            } else {
-                if (itemsInTheAfterScreen != null && itemsInTheAfterScreen.size() > 0) {
-                    if (LauncherLog.DEBUG) {
-                        LauncherLog.d(TAG, "reorderAllApps: itemsInBiggerScreen number is "
-                            + itemsInTheAfterScreen.size());
-                    }
-                    for (ItemInfo appInfo : itemsInTheAfterScreen) {
-                        if (LauncherLog.DEBUG) {
-                            LauncherLog.d(TAG, "reorderAllApps: move item (" + appInfo.cellX + ","
-                                + appInfo.cellY + "). from screen " + appInfo.screenId
-                                + " to the forward one.");
-                        }
-                        moveAllAppsItemInDatabase(mContext, appInfo,
-                                (int) (appInfo.screenId - 1),
-                                appInfo.cellX, appInfo.cellY);
-                    }
-                }
+    private static int countLessThan(ArrayList<Integer> values, int value) {
+        if (values == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int v : values) {
+            if (v < value) {
+                count++;
             }
         }
+        return count;
     }
 
     /**
@@ -94,6 +94,10 @@ public class LauncherProvider extends ContentProvider {
     /// M: Modify for OP customization.
     protected static DatabaseHelper mOpenHelper;
 
+    // Thread applying a batch, listeners are notified once when the batch is done.
+    private Thread mBatchThread;
+    private boolean mBatchChanged;
+
     /// M: Indicate whether the device is Tablet or not
     private static boolean sIsTablet = ("tablet".equals(
             SystemProperties.get("ro.build.characteristics")));
@@ -251,13 +255,20 @@ public class LauncherProvider extends ContentProvider {
             throws OperationApplicationException {
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         db.beginTransaction();
+        mBatchThread = Thread.currentThread();
         try {
             ContentProviderResult[] result =  super.applyBatch(operations);
             db.setTransactionSuccessful();
             reloadLauncherIfExternal();
             return result;
         } finally {
+            final boolean changed = mBatchChanged;
+            mBatchThread = null;
+            mBatchChanged = false;
             db.endTransaction();
+            if (changed) {
+                notifyListeners();
+            }
         }
     }
 
@@ -362,6 +373,10 @@ public class LauncherProvider extends ContentProvider {
      * Overridden in tests
      */
     protected void notifyListeners() {
+        if (mBatchThread == Thread.currentThread()) {
+            mBatchChanged = true;
+            return;
+        }
         // always notify the backup agent
         LauncherBackupAgentHelper.dataChanged(getContext());
         if (mListener != null) {
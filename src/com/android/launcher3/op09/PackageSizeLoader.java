@@ -0,0 +1,246 @@
+/* Copyright Statement:
+ *
+ * This software/firmware and related documentation ("MediaTek Software") are
+ * protected under relevant copyright laws. The information contained herein is
+ * confidential and proprietary to MediaTek Inc. and/or its licensors. Without
+ * the prior written permission of MediaTek inc. and/or its licensors, any
+ * reproduction, modification, use or disclosure of MediaTek Software, and
+ * information contained herein, in whole or in part, shall be strictly
+ * prohibited.
+ *
+ * MediaTek Inc. (C) 2010. All rights reserved.
+ *
+ * BY OPENING THIS FILE, RECEIVER HEREBY UNEQUIVOCALLY ACKNOWLEDGES AND AGREES
+ * THAT THE SOFTWARE/FIRMWARE AND ITS DOCUMENTATIONS ("MEDIATEK SOFTWARE")
+ * RECEIVED FROM MEDIATEK AND/OR ITS REPRESENTATIVES ARE PROVIDED TO RECEIVER
+ * ON AN "AS-IS" BASIS ONLY. MEDIATEK EXPRESSLY DISCLAIMS ANY AND ALL
+ * WARRANTIES, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE OR
+ * NONINFRINGEMENT. NEITHER DOES MEDIATEK PROVIDE ANY WARRANTY WHATSOEVER WITH
+ * RESPECT TO THE SOFTWARE OF ANY THIRD PARTY WHICH MAY BE USED BY,
+ * INCORPORATED IN, OR SUPPLIED WITH THE MEDIATEK SOFTWARE, AND RECEIVER AGREES
+ * TO LOOK ONLY TO SUCH THIRD PARTY FOR ANY WARRANTY CLAIM RELATING THERETO.
+ * RECEIVER EXPRESSLY ACKNOWLEDGES THAT IT IS RECEIVER'S SOLE RESPONSIBILITY TO
+ * OBTAIN FROM ANY THIRD PARTY ALL PROPER LICENSES CONTAINED IN MEDIATEK
+ * SOFTWARE. MEDIATEK SHALL ALSO NOT BE RESPONSIBLE FOR ANY MEDIATEK SOFTWARE
+ * RELEASES MADE TO RECEIVER'S SPECIFICATION OR TO CONFORM TO A PARTICULAR
+ * STANDARD OR OPEN FORUM. RECEIVER'S SOLE AND EXCLUSIVE REMEDY AND MEDIATEK'S
+ * ENTIRE AND CUMULATIVE LIABILITY WITH RESPECT TO THE MEDIATEK SOFTWARE
+ * RELEASED HEREUNDER WILL BE, AT MEDIATEK'S OPTION, TO REVISE OR REPLACE THE
+ * MEDIATEK SOFTWARE AT ISSUE, OR REFUND ANY SOFTWARE LICENSE FEES OR SERVICE
+ * CHARGE PAID BY RECEIVER TO MEDIATEK FOR SUCH MEDIATEK SOFTWARE AT ISSUE.
+ *
+ * The following software/firmware and/or related documentation ("MediaTek
+ * Software") have been modified by MediaTek Inc. All revisions are subject to
+ * any receiver's applicable license agreements with MediaTek Inc.
+ */
+
+package com.android.launcher3;
+
+import android.content.Context;
+import android.content.pm.IPackageStatsObserver;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.PackageStats;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.android.launcher3.op.LauncherLog;
+import com.android.launcher3.util.Thunk;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * M: Loads the size of packages for the hide apps screen, for op09.
+ *
+ * A few size requests are sent to the package manager at a time, and the results are kept for
+ * the lifetime of the process, keyed by package and its last update time, so opening the screen
+ * again only queries the packages which changed.
+ */
+class PackageSizeLoader {
+    private static final String TAG = "PackageSizeLoader";
+
+    // Number of size requests sent to the package manager at a time.
+    private static final int MAX_PENDING_REQUESTS = 4;
+    // Time after which a request the package manager did not answer frees its slot.
+    private static final long REQUEST_TIMEOUT_MS = 10000;
+
+    /**
+     * Receives the package sizes, on the loader thread.
+     */
+    interface Callbacks {
+        void onPackageSizeLoaded(PackageStats stats);
+    }
+
+    private static final HandlerThread sWorkerThread =
+            new HandlerThread("package-size-loader", Process.THREAD_PRIORITY_BACKGROUND);
+    static {
+        sWorkerThread.start();
+    }
+
+    private static PackageSizeLoader sInstance;
+
+    static synchronized PackageSizeLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageSizeLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final PackageManager mPm;
+    @Thunk final Handler mWorker = new Handler(sWorkerThread.getLooper());
+
+    // The following are only accessed on the loader thread.
+    private final HashMap<String, CachedSize> mCache = new HashMap<>();
+    private final ArrayDeque<String> mQueue = new ArrayDeque<>();
+    // The packages with a request in flight.
+    @Thunk final HashMap<String, PendingRequest> mPendingRequests = new HashMap<>();
+    private Callbacks mCallbacks;
+    private Method mGetPackageSizeInfo;
+
+    private final IPackageStatsObserver.Stub mStatsObserver = new IPackageStatsObserver.Stub() {
+        public void onGetStatsCompleted(final PackageStats stats, final boolean succeeded) {
+            mWorker.post(new Runnable() {
+                @Override
+                public void run() {
+                    onSizeLoaded(stats, succeeded);
+                }
+            });
+        }
+    };
+
+    private PackageSizeLoader(Context context) {
+        mPm = context.getPackageManager();
+    }
+
+    /**
+     * Loads the size of the given packages, in order. Cached sizes are delivered right away, and
+     * any previous load is replaced.
+     */
+    void loadSizes(List<String> packageNames, final Callbacks callbacks) {
+        final LinkedHashSet<String> packages = new LinkedHashSet<>(packageNames);
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallbacks = callbacks;
+                mQueue.clear();
+                for (String packageName : packages) {
+                    CachedSize cached = mCache.get(packageName);
+                    if (cached != null
+                            && cached.lastUpdateTime == getLastUpdateTime(packageName)) {
+                        callbacks.onPackageSizeLoaded(cached.stats);
+                    } else if (!mPendingRequests.containsKey(packageName)) {
+                        // Pending requests are delivered to the new callbacks when they finish.
+                        mQueue.add(packageName);
+                    }
+                }
+                sendRequests();
+            }
+        });
+    }
+
+    /**
+     * Stops delivering sizes to the given callbacks, and drops the packages not requested yet.
+     */
+    void cancel(final Callbacks callbacks) {
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCallbacks == callbacks) {
+                    mCallbacks = null;
+                    mQueue.clear();
+                }
+            }
+        });
+    }
+
+    @Thunk void sendRequests() {
+        while (mPendingRequests.size() < MAX_PENDING_REQUESTS && !mQueue.isEmpty()) {
+            final String packageName = mQueue.poll();
+            final long lastUpdateTime = getLastUpdateTime(packageName);
+            if (lastUpdateTime < 0) {
+                continue;
+            }
+            final PendingRequest request = new PendingRequest(packageName, lastUpdateTime);
+            mPendingRequests.put(packageName, request);
+            mWorker.postDelayed(request, REQUEST_TIMEOUT_MS);
+            try {
+                if (mGetPackageSizeInfo == null) {
+                    mGetPackageSizeInfo = mPm.getClass().getMethod("getPackageSizeInfo",
+                            new Class[] { String.class, IPackageStatsObserver.class });
+                }
+                mGetPackageSizeInfo.invoke(mPm, new Object[] { packageName, mStatsObserver });
+            } catch (Exception e) {
+                LauncherLog.e(TAG, "load size fail: " + e);
+                mPendingRequests.remove(packageName);
+                mWorker.removeCallbacks(request);
+            }
+        }
+    }
+
+    @Thunk void onSizeLoaded(PackageStats stats, boolean succeeded) {
+        // A request answered without stats frees its slot when it times out.
+        if (stats != null) {
+            final PendingRequest request = mPendingRequests.remove(stats.packageName);
+            if (request != null) {
+                mWorker.removeCallbacks(request);
+            }
+            if (succeeded) {
+                if (request != null) {
+                    mCache.put(stats.packageName,
+                            new CachedSize(request.lastUpdateTime, stats));
+                }
+                if (mCallbacks != null) {
+                    mCallbacks.onPackageSizeLoaded(stats);
+                }
+            }
+        }
+        sendRequests();
+    }
+
+    private long getLastUpdateTime(String packageName) {
+        try {
+            return mPm.getPackageInfo(packageName, 0).lastUpdateTime;
+        } catch (NameNotFoundException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A request in flight, which frees its slot when it runs, if the package manager did not
+     * answer it by then.
+     */
+    private class PendingRequest implements Runnable {
+        final String packageName;
+        final long lastUpdateTime;
+
+        PendingRequest(String packageName, long lastUpdateTime) {
+            this.packageName = packageName;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
+        @Override
+        public void run() {
+            if (mPendingRequests.get(packageName) == this) {
+                LauncherLog.w(TAG, "load size timed out: " + packageName);
+                mPendingRequests.remove(packageName);
+                sendRequests();
+            }
+        }
+    }
+
+    private static class CachedSize {
+        final long lastUpdateTime;
+        final PackageStats stats;
+
+        CachedSize(long lastUpdateTime, PackageStats stats) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.graphics.Bitmap;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * A pool of mutable bitmaps, which can be reused to draw or decode bitmaps of the same size and
+ * config. Bitmaps are bucketed by size and config, so finding a match does not depend on the
+ * number of pooled bitmaps. The pool is bounded by the total size of its bitmaps, bitmaps which
+ * do not fit are left to the garbage collector.
+ *
+ * This class is thread safe.
+ */
+public class BitmapPool {
+
+    private final LongSparseArray<ArrayList<Bitmap>> mBuckets = new LongSparseArray<>();
+    private final long mMaxBytes;
+    private long mSize;
+
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a pooled bitmap of the given size and config, or null if there is none. The
+     * content of the returned bitmap is undefined.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayList<Bitmap> bucket = mBuckets.get(getBucketKey(width, height, config));
+        if (bucket == null || bucket.isEmpty()) {
+            return null;
+        }
+        Bitmap bitmap = bucket.remove(bucket.size() - 1);
+        mSize -= bitmap.getByteCount();
+        return bitmap;
+    }
+
+    /**
+     * Adds the bitmap to the pool. The caller must not use the bitmap afterwards.
+     *
+     * @return true if the bitmap was added
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() == null) {
+            return false;
+        }
+        int bytes = bitmap.getByteCount();
+        if (mSize + bytes > mMaxBytes) {
+            return false;
+        }
+
+        long key = getBucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayList<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>();
+            mBuckets.put(key, bucket);
+        } else if (bucket.contains(bitmap)) {
+            return false;
+        }
+        bucket.add(bitmap);
+        mSize += bytes;
+        return true;
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Returns the total size of the pooled bitmaps, in bytes.
+     */
+    public synchronized long getSizeInBytes() {
+        return mSize;
+    }
+
+    private static long getBucketKey(int width, int height, Bitmap.Config config) {
+        return ((long) width << 32) | ((long) height << 8) | config.ordinal();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.graphics.Rect;
+
+/**
+ * Tracks the occupied cells of a grid.
+ *
+ * Each row is stored as a bit mask, so a horizontal span is checked with a single mask
+ * operation. Rectangular areas are checked in constant time using a summed-area table, which
+ * is rebuilt lazily after the grid changes.
+ */
+public class GridOccupancy {
+
+    public static final int MAX_COUNT_X = Long.SIZE;
+
+    public final int countX;
+    public final int countY;
+
+    // Bit x of mRows[y] is set when the cell (x, y) is occupied.
+    private final long[] mRows;
+
+    // mSums[y * (countX + 1) + x] is the number of occupied cells in [0, x) x [0, y).
+    private final int[] mSums;
+    private boolean mSumsValid;
+
+    public GridOccupancy(int countX, int countY) {
+        if (countX < 0 || countX > MAX_COUNT_X || countY < 0) {
+            throw new IllegalArgumentException("Invalid grid size " + countX + "x" + countY);
+        }
+        this.countX = countX;
+        this.countY = countY;
+        mRows = new long[countY];
+        mSums = new int[(countX + 1) * (countY + 1)];
+        mSumsValid = true;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
+    }
+
+    /**
+     * Marks the cells of the given area, ignoring the parts that fall outside the grid.
+     */
+    public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
+        if (cellX < 0 || cellY < 0) return;
+        int endX = Math.min(cellX + spanX, countX);
+        int endY = Math.min(cellY + spanY, countY);
+        if (endX <= cellX || endY <= cellY) return;
+
+        long mask = spanMask(endX - cellX) << cellX;
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
+            }
+        }
+        mSumsValid = false;
+    }
+
+    public void markCells(Rect r, boolean value) {
+        markCells(r.left, r.top, r.width(), r.height(), value);
+    }
+
+    public void clear() {
+        for (int y = 0; y < countY; y++) {
+            mRows[y] = 0;
+        }
+        mSumsValid = false;
+    }
+
+    /**
+     * Copies the state of this grid into another grid of the same size.
+     */
+    public void copyTo(GridOccupancy dest) {
+        if (dest.countX != countX || dest.countY != countY) {
+            throw new IllegalArgumentException("Grid size mismatch");
+        }
+        System.arraycopy(mRows, 0, dest.mRows, 0, countY);
+        dest.mSumsValid = false;
+    }
+
+    /**
+     * Returns whether the given area lies within the grid and has no occupied cell.
+     */
+    public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
+        if (x < 0 || y < 0 || spanX <= 0 || spanY <= 0
+                || x + spanX > countX || y + spanY > countY) {
+            return false;
+        }
+        if (spanY == 1) {
+            return (mRows[y] & (spanMask(spanX) << x)) == 0;
+        }
+        return countOccupied(x, y, spanX, spanY) == 0;
+    }
+
+    /**
+     * Returns whether a block of the given size fits at (x, y), where only the cells marked in
+     * blockOccupied need to be vacant. A null block is treated as fully occupied.
+     */
+    public boolean isRegionVacant(int x, int y, int spanX, int spanY,
+            GridOccupancy blockOccupied) {
+        if (blockOccupied == null) {
+            return isRegionVacant(x, y, spanX, spanY);
+        }
+        if (x < 0 || y < 0 || x + spanX > countX || y + spanY > countY) {
+            return false;
+        }
+        long mask = spanMask(spanX);
+        for (int j = 0; j < spanY; j++) {
+            if (((mRows[y + j] >>> x) & blockOccupied.mRows[j] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of occupied cells in the given area, which must lie within the grid.
+     */
+    public int countOccupied(int x, int y, int spanX, int spanY) {
+        if (!mSumsValid) {
+            rebuildSums();
+        }
+        final int stride = countX + 1;
+        int x2 = x + spanX;
+        int y2 = y + spanY;
+        return mSums[y2 * stride + x2] - mSums[y * stride + x2]
+                - mSums[y2 * stride + x] + mSums[y * stride + x];
+    }
+
+    /**
+     * Finds the first vacant area of the given size, scanning row by row.
+     *
+     * @param vacant Holds the x and y coordinate of the vacant area, or null
+     * @return true if a vacant area was found
+     */
+    public boolean findVacantCell(int[] vacant, int spanX, int spanY) {
+        for (int y = 0; (y + spanY) <= countY; y++) {
+            for (int x = 0; (x + spanX) <= countX; x++) {
+                if (isRegionVacant(x, y, spanX, spanY)) {
+                    if (vacant != null) {
+                        vacant[0] = x;
+                        vacant[1] = y;
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void rebuildSums() {
+        final int stride = countX + 1;
+        for (int y = 0; y < countY; y++) {
+            long row = mRows[y];
+            int rowSum = 0;
+            int base = (y + 1) * stride;
+            for (int x = 0; x < countX; x++) {
+                if ((row & (1L << x)) != 0) {
+                    rowSum++;
+                }
+                mSums[base + x + 1] = mSums[base - stride + x + 1] + rowSum;
+            }
+        }
+        mSumsValid = true;
+    }
+
+    private static long spanMask(int span) {
+        return span >= Long.SIZE ? -1L : (1L << span) - 1;
+    }
+}
@@ -44,23 +44,18 @@ public class IconNormalizer {
     private static IconNormalizer sIconNormalizer;
 
     private final int mMaxSize;
-    private final Bitmap mBitmap;
-    private final Canvas mCanvas;
-    private final byte[] mPixels;
 
-    // for each y, stores the position of the leftmost x and the rightmost x
-    private final float[] mLeftBorder;
-    private final float[] mRightBorder;
+    // Each thread uses its own scratch buffers, so icons can be normalized in parallel.
+    private final ThreadLocal<Buffers> mBuffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers(mMaxSize);
+        }
+    };
 
     private IconNormalizer() {
         // Use twice the icon size as maximum size to avoid scaling down twice.
         mMaxSize = LauncherAppState.getInstance().getInvariantDeviceProfile().iconBitmapSize * 2;
-        mBitmap = Bitmap.createBitmap(mMaxSize, mMaxSize, Bitmap.Config.ALPHA_8);
-        mCanvas = new Canvas(mBitmap);
-        mPixels = new byte[mMaxSize * mMaxSize];
-
-        mLeftBorder = new float[mMaxSize];
-        mRightBorder = new float[mMaxSize];
     }
 
     /**
@@ -75,7 +70,13 @@ public class IconNormalizer {
      * This closeness is used to determine the ratio of hull area to the full icon size.
      * Refer {@link #MAX_CIRCLE_AREA_FACTOR} and {@link #MAX_SQUARE_AREA_FACTOR}
      */
-    public synchronized float getScale(Drawable d) {
+    public float getScale(Drawable d) {
+        final Buffers buffers = mBuffers.get();
+        final Bitmap bitmap = buffers.bitmap;
+        final byte[] pixels = buffers.pixels;
+        final float[] leftBorder = buffers.leftBorder;
+        final float[] rightBorder = buffers.rightBorder;
+
         int width = d.getIntrinsicWidth();
         int height = d.getIntrinsicHeight();
         if (width <= 0 || height <= 0) {
@@ -87,13 +88,13 @@ public class IconNormalizer {
             height = mMaxSize * height / max;
         }
 
-        mBitmap.eraseColor(Color.TRANSPARENT);
+        bitmap.eraseColor(Color.TRANSPARENT);
         d.setBounds(0, 0, width, height);
-        d.draw(mCanvas);
+        d.draw(buffers.canvas);
 
-        ByteBuffer buffer = ByteBuffer.wrap(mPixels);
+        ByteBuffer buffer = ByteBuffer.wrap(pixels);
         buffer.rewind();
-        mBitmap.copyPixelsToBuffer(buffer);
+        bitmap.copyPixelsToBuffer(buffer);
 
         // Overall bounds of the visible icon.
         int topY = -1;
@@ -102,8 +103,8 @@ public class IconNormalizer {
         int rightX = -1;
 
         // Create border by going through all pixels one row at a time and for each row find
-        // the first and the last non-transparent pixel. Set those values to mLeftBorder and
-        // mRightBorder and use -1 if there are no visible pixel in the row.
+        // the first and the last non-transparent pixel. Set those values to leftBorder and
+        // rightBorder and use -1 if there are no visible pixel in the row.
 
         // buffer position
         int index = 0;
@@ -115,7 +116,7 @@ public class IconNormalizer {
         for (int y = 0; y < height; y++) {
             firstX = lastX = -1;
             for (int x = 0; x < width; x++) {
-                if ((mPixels[index] & 0xFF) > MIN_VISIBLE_ALPHA) {
+                if ((pixels[index] & 0xFF) > MIN_VISIBLE_ALPHA) {
                     if (firstX == -1) {
                         firstX = x;
                     }
@@ -125,8 +126,8 @@ public class IconNormalizer {
             }
             index += rowSizeDiff;
 
-            mLeftBorder[y] = firstX;
-            mRightBorder[y] = lastX;
+            leftBorder[y] = firstX;
+            rightBorder[y] = lastX;
 
             // If there is at least one visible pixel, update the overall bounds.
             if (firstX != -1) {
@@ -145,16 +146,16 @@ public class IconNormalizer {
             return 1;
         }
 
-        convertToConvexArray(mLeftBorder, 1, topY, bottomY);
-        convertToConvexArray(mRightBorder, -1, topY, bottomY);
+        convertToConvexArray(leftBorder, buffers.angles, 1, topY, bottomY);
+        convertToConvexArray(rightBorder, buffers.angles, -1, topY, bottomY);
 
         // Area of the convex hull
         float area = 0;
         for (int y = 0; y < height; y++) {
-            if (mLeftBorder[y] <= -1) {
+            if (leftBorder[y] <= -1) {
                 continue;
             }
-            area += mRightBorder[y] - mLeftBorder[y] + 1;
+            area += rightBorder[y] - leftBorder[y] + 1;
         }
 
         // Area of the rectangle required to fit the convex hull
@@ -178,16 +179,14 @@ public class IconNormalizer {
      * Modifies {@param xCordinates} to represent a convex border. Fills in all missing values
      * (except on either ends) with appropriate values.
      * @param xCordinates map of x coordinate per y.
+     * @param angles scratch array for the tangent at each pixel, at least as long as
+     *               {@param xCordinates}.
      * @param direction 1 for left border and -1 for right border.
      * @param topY the first Y position (inclusive) with a valid value.
      * @param bottomY the last Y position (inclusive) with a valid value.
      */
     private static void convertToConvexArray(
-            float[] xCordinates, int direction, int topY, int bottomY) {
-        int total = xCordinates.length;
-        // The tangent at each pixel.
-        float[] angles = new float[total - 1];
-
+            float[] xCordinates, float[] angles, int direction, int topY, int bottomY) {
         int first = topY; // First valid y coordinate
         int last = -1;    // Last valid y coordinate which didn't have a missing value
 
@@ -236,4 +235,28 @@ public class IconNormalizer {
         }
         return sIconNormalizer;
     }
+
+    /**
+     * Scratch buffers used to find the visible area of an icon.
+     */
+    private static final class Buffers {
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final byte[] pixels;
+
+        // for each y, stores the position of the leftmost x and the rightmost x
+        final float[] leftBorder;
+        final float[] rightBorder;
+        final float[] angles;
+
+        Buffers(int maxSize) {
+            bitmap = Bitmap.createBitmap(maxSize, maxSize, Bitmap.Config.ALPHA_8);
+            canvas = new Canvas(bitmap);
+            pixels = new byte[maxSize * maxSize];
+
+            leftBorder = new float[maxSize];
+            rightBorder = new float[maxSize];
+            angles = new float[maxSize];
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of icon rendering jobs on all the cores, and returns once they are all done.
+ *
+ * The calling thread takes part in the work, so a call completes even when the render threads
+ * are busy with another call. The render threads are stopped when they have been idle for a
+ * while, releasing their rendering buffers.
+ */
+public class IconRenderExecutor {
+
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final int KEEP_ALIVE_SECONDS = 5;
+
+    /**
+     * A job of a list, identified by its index.
+     */
+    public interface IndexedTask {
+        void run(int index);
+    }
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "icon-render-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@param task} for each index from 0 to {@param count} - 1, in parallel.
+     *
+     * @throws RuntimeException if one of the jobs failed
+     */
+    public static void runInParallel(final int count, final IndexedTask task) {
+        final int helperCount = Math.min(count, THREAD_COUNT) - 1;
+        if (helperCount <= 0) {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < count) {
+                    task.run(index);
+                }
+            }
+        };
+        ArrayList<FutureTask<Void>> helpers = new ArrayList<>(helperCount);
+        for (int i = 0; i < helperCount; i++) {
+            FutureTask<Void> helper = new FutureTask<>(worker, null);
+            helpers.add(helper);
+            EXECUTOR.execute(helper);
+        }
+        worker.run();
+
+        boolean interrupted = false;
+        try {
+            for (FutureTask<Void> helper : helpers) {
+                // A helper which did not start has no job left to pick.
+                if (helper.cancel(false)) {
+                    continue;
+                }
+                while (true) {
+                    try {
+                        helper.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // The results are used by the caller, wait for the running jobs.
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
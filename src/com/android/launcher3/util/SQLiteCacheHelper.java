@@ -3,19 +3,28 @@ package com.android.launcher3.util;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
+import java.util.List;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
+ *
+ * The batch variants of the write operations apply all their rows inside a single transaction,
+ * and the DB uses write-ahead logging so that reads are not blocked by those transactions.
  */
 public abstract class SQLiteCacheHelper {
     private static final String TAG = "SQLiteCacheHelper";
 
+    // Keys per query in a multi-key read, below the SQLite limit on the number of arguments.
+    private static final int MAX_KEYS_PER_QUERY = 500;
+
     private final String mTableName;
     private final MySQLiteOpenHelper mOpenHelper;
 
@@ -24,6 +33,7 @@ public abstract class SQLiteCacheHelper {
     public SQLiteCacheHelper(Context context, String name, int version, String tableName) {
         mTableName = tableName;
         mOpenHelper = new MySQLiteOpenHelper(context, name, version);
+        mOpenHelper.setWriteAheadLoggingEnabled(true);
 
         mIgnoreWrites = false;
     }
@@ -77,6 +87,101 @@ public abstract class SQLiteCacheHelper {
         }
     }
 
+    /**
+     * Updates the rows matching each of the given arguments, in a single transaction.
+     *
+     * @param valuesList the values for each update
+     * @param whereArgsList the arguments for each update, in the same order as valuesList
+     * @see #update(ContentValues, String, String[])
+     */
+    public void update(List<ContentValues> valuesList, String whereClause,
+            List<String[]> whereArgsList) {
+        if (mIgnoreWrites || valuesList.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = beginTransaction();
+            for (int i = 0; i < valuesList.size(); i++) {
+                db.update(mTableName, valuesList.get(i), whereClause, whereArgsList.get(i));
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        } finally {
+            endTransaction(db);
+        }
+    }
+
+    /**
+     * Deletes the rows matching each of the given arguments, in a single transaction.
+     *
+     * @see #delete(String, String[])
+     */
+    public void delete(String whereClause, List<String[]> whereArgsList) {
+        if (mIgnoreWrites || whereArgsList.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = beginTransaction();
+            for (String[] whereArgs : whereArgsList) {
+                db.delete(mTableName, whereClause, whereArgs);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        } finally {
+            endTransaction(db);
+        }
+    }
+
+    /**
+     * Inserts or replaces all the given rows, in a single transaction.
+     *
+     * @see #insertOrReplace(ContentValues)
+     */
+    public void insertOrReplace(List<ContentValues> valuesList) {
+        if (mIgnoreWrites || valuesList.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = null;
+        try {
+            db = beginTransaction();
+            for (ContentValues values : valuesList) {
+                db.insertWithOnConflict(mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteFullException e) {
+            onDiskFull(e);
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        } finally {
+            endTransaction(db);
+        }
+    }
+
+    private SQLiteDatabase beginTransaction() {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        return db;
+    }
+
+    private void endTransaction(SQLiteDatabase db) {
+        if (db == null) {
+            return;
+        }
+        try {
+            db.endTransaction();
+        } catch (SQLiteException e) {
+            Log.d(TAG, "Ignoring sqlite exception", e);
+        }
+    }
+
     private void onDiskFull(SQLiteFullException e) {
         Log.e(TAG, "Disk full, all write operations will be ignored", e);
         mIgnoreWrites = true;
@@ -90,6 +195,48 @@ public abstract class SQLiteCacheHelper {
                 mTableName, columns, selection, selectionArgs, null, null, null);
     }
 
+    /**
+     * Queries the rows whose keyColumn is one of the given keys, and which match the selection.
+     * Large key sets are split into several queries, whose results are merged.
+     *
+     * @param selection an additional selection, or null
+     */
+    public Cursor query(String[] columns, String keyColumn, List<String> keys,
+            String selection, String[] selectionArgs) {
+        int extraArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        int queryCount = (keys.size() + MAX_KEYS_PER_QUERY - 1) / MAX_KEYS_PER_QUERY;
+        Cursor[] cursors = new Cursor[Math.max(queryCount, 1)];
+        try {
+            for (int i = 0; i < cursors.length; i++) {
+                int start = i * MAX_KEYS_PER_QUERY;
+                int end = Math.min(start + MAX_KEYS_PER_QUERY, keys.size());
+
+                StringBuilder where = new StringBuilder(keyColumn).append(" IN (");
+                String[] args = new String[end - start + extraArgs];
+                for (int j = start; j < end; j++) {
+                    where.append(j == start ? "?" : ",?");
+                    args[j - start] = keys.get(j);
+                }
+                where.append(")");
+                if (selection != null) {
+                    where.append(" AND (").append(selection).append(")");
+                }
+                if (extraArgs > 0) {
+                    System.arraycopy(selectionArgs, 0, args, end - start, extraArgs);
+                }
+                cursors[i] = query(columns, where.toString(), args);
+            }
+        } catch (SQLiteException e) {
+            for (Cursor c : cursors) {
+                if (c != null) {
+                    c.close();
+                }
+            }
+            throw e;
+        }
+        return cursors.length == 1 ? cursors[0] : new MergeCursor(cursors);
+    }
+
     protected abstract void onCreateTable(SQLiteDatabase db);
 
     /**
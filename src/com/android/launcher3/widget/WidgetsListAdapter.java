@@ -20,9 +20,11 @@ import android.content.Context;
 import android.content.pm.ResolveInfo;
 import android.content.res.Resources;
 import android.os.Build;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.RecyclerView.Adapter;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -37,9 +39,12 @@ import com.android.launcher3.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.R;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.WidgetPreviewLoader;
+import com.android.launcher3.WidgetPreviewLoader.PreviewLoadRequest;
 import com.android.launcher3.model.PackageItemInfo;
 import com.android.launcher3.model.WidgetsModel;
+import com.android.launcher3.util.Thunk;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -67,6 +72,16 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
     private static final int PRESET_INDENT_SIZE_TABLET = 56;
     private int mIndent = 0;
 
+    // Number of rows whose previews are loaded ahead of the scroll direction.
+    private static final int PREFETCH_ROW_COUNT = 3;
+
+    private final PrefetchScrollListener mPrefetchScrollListener = new PrefetchScrollListener();
+    // Pending prefetches, keyed by row.
+    private final SparseArray<ArrayList<PreviewLoadRequest>> mPrefetchRequests =
+            new SparseArray<>();
+    // Size of the previews in the cells, known once a cell is bound.
+    private int[] mPreviewSize;
+
     public WidgetsListAdapter(Context context,
             View.OnClickListener iconClickListener,
             View.OnLongClickListener iconLongClickListener,
@@ -82,6 +97,9 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
 
     public void setWidgetsModel(WidgetsModel w) {
         mWidgetsModel = w;
+        // The rows may have moved.
+        mPrefetchScrollListener.reset();
+        cancelPrefetches();
     }
 
     @Override
@@ -150,11 +168,75 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
                 widget.setTag(pasi);
                 widget.applyFromResolveInfo(mLauncher.getPackageManager(), info, mWidgetPreviewLoader);
             }
+            if (mPreviewSize == null) {
+                mPreviewSize = widget.getPreviewSize();
+            }
             widget.ensurePreview();
             widget.setVisibility(View.VISIBLE);
         }
     }
 
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(mPrefetchScrollListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        recyclerView.removeOnScrollListener(mPrefetchScrollListener);
+        mPrefetchScrollListener.reset();
+        cancelPrefetches();
+    }
+
+    /**
+     * Prefetches the previews of the given rows, and drops the prefetches of the rows which left
+     * that window. Rows are queued from the farthest to the nearest, as the most recent request
+     * is loaded first.
+     */
+    @Thunk void prefetchRows(int nearestRow, int farthestRow) {
+        int firstRow = Math.min(nearestRow, farthestRow);
+        int lastRow = Math.max(nearestRow, farthestRow);
+        for (int i = mPrefetchRequests.size() - 1; i >= 0; i--) {
+            int row = mPrefetchRequests.keyAt(i);
+            if (row < firstRow || row > lastRow) {
+                cleanup(mPrefetchRequests.valueAt(i));
+                mPrefetchRequests.removeAt(i);
+            }
+        }
+
+        if (mPreviewSize == null || getWidgetPreviewLoader() == null) {
+            return;
+        }
+        int step = farthestRow >= nearestRow ? -1 : 1;
+        for (int pos = farthestRow; pos != nearestRow + step; pos += step) {
+            if (pos < 0 || pos >= getItemCount() || mPrefetchRequests.get(pos) != null) {
+                continue;
+            }
+            ArrayList<PreviewLoadRequest> requests = new ArrayList<>();
+            for (Object info : mWidgetsModel.getSortedWidgets(pos)) {
+                PreviewLoadRequest request = mWidgetPreviewLoader.prefetchPreview(info,
+                        mPreviewSize[0], mPreviewSize[1], mLauncher);
+                if (request != null) {
+                    requests.add(request);
+                }
+            }
+            mPrefetchRequests.put(pos, requests);
+        }
+    }
+
+    private void cancelPrefetches() {
+        for (int i = 0; i < mPrefetchRequests.size(); i++) {
+            cleanup(mPrefetchRequests.valueAt(i));
+        }
+        mPrefetchRequests.clear();
+    }
+
+    private static void cleanup(ArrayList<PreviewLoadRequest> requests) {
+        for (PreviewLoadRequest request : requests) {
+            request.cleanup();
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     @Override
     public WidgetsRowViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
@@ -207,6 +289,49 @@ public class WidgetsListAdapter extends Adapter<WidgetsRowViewHolder> {
         return mWidgetPreviewLoader;
     }
 
+    /**
+     * Prefetches the rows following the visible ones in the scroll direction, whenever that
+     * window changes.
+     */
+    private class PrefetchScrollListener extends RecyclerView.OnScrollListener {
+        private int mNearestRow = RecyclerView.NO_POSITION;
+        private int mFarthestRow = RecyclerView.NO_POSITION;
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (dy == 0 || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+                return;
+            }
+            LinearLayoutManager layoutManager =
+                    (LinearLayoutManager) recyclerView.getLayoutManager();
+            if (layoutManager.findFirstVisibleItemPosition() == RecyclerView.NO_POSITION) {
+                return;
+            }
+            int nearestRow;
+            int farthestRow;
+            if (dy > 0) {
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                nearestRow = lastVisible + 1;
+                farthestRow = lastVisible + PREFETCH_ROW_COUNT;
+            } else {
+                int firstVisible = layoutManager.findFirstVisibleItemPosition();
+                nearestRow = firstVisible - 1;
+                farthestRow = firstVisible - PREFETCH_ROW_COUNT;
+            }
+            if (nearestRow == mNearestRow && farthestRow == mFarthestRow) {
+                return;
+            }
+            mNearestRow = nearestRow;
+            mFarthestRow = farthestRow;
+            prefetchRows(nearestRow, farthestRow);
+        }
+
+        void reset() {
+            mNearestRow = RecyclerView.NO_POSITION;
+            mFarthestRow = RecyclerView.NO_POSITION;
+        }
+    }
+
     private void setContainerHeight() {
         Resources r = mLauncher.getResources();
         DeviceProfile profile = mLauncher.getDeviceProfile();
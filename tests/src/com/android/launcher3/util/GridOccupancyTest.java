@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.launcher3.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests the {@link GridOccupancy} class.
+ */
+@SmallTest
+public final class GridOccupancyTest extends AndroidTestCase {
+
+    public void testMarkCells() {
+        GridOccupancy grid = new GridOccupancy(4, 3);
+        grid.markCells(1, 1, 2, 2, true);
+        assertFalse(grid.isOccupied(0, 1));
+        assertTrue(grid.isOccupied(1, 1));
+        assertTrue(grid.isOccupied(2, 2));
+        assertFalse(grid.isOccupied(3, 2));
+
+        // Areas going past the grid are clipped
+        grid.markCells(3, 2, 5, 5, true);
+        assertTrue(grid.isOccupied(3, 2));
+
+        grid.markCells(1, 1, 1, 2, false);
+        assertFalse(grid.isOccupied(1, 1));
+        assertFalse(grid.isOccupied(1, 2));
+        assertTrue(grid.isOccupied(2, 1));
+    }
+
+    public void testIsRegionVacant() {
+        GridOccupancy grid = new GridOccupancy(5, 5);
+        assertTrue(grid.isRegionVacant(0, 0, 5, 5));
+        assertFalse(grid.isRegionVacant(1, 0, 5, 1));
+        assertFalse(grid.isRegionVacant(-1, 0, 1, 1));
+
+        grid.markCells(2, 3, 1, 1, true);
+        assertFalse(grid.isRegionVacant(0, 0, 5, 5));
+        assertFalse(grid.isRegionVacant(2, 3, 1, 1));
+        assertTrue(grid.isRegionVacant(0, 0, 5, 3));
+        assertTrue(grid.isRegionVacant(3, 0, 2, 5));
+        assertFalse(grid.isRegionVacant(0, 3, 5, 1));
+        assertEquals(1, grid.countOccupied(0, 0, 5, 5));
+    }
+
+    public void testIsRegionVacantWithBlock() {
+        GridOccupancy grid = new GridOccupancy(4, 4);
+        grid.markCells(1, 0, 1, 1, true);
+
+        // An L-shaped block only needs its own cells to be vacant
+        GridOccupancy block = new GridOccupancy(2, 2);
+        block.markCells(0, 0, 1, 2, true);
+        block.markCells(1, 1, 1, 1, true);
+        assertTrue(grid.isRegionVacant(0, 0, 2, 2, block));
+        assertFalse(grid.isRegionVacant(0, 0, 2, 2, null));
+        assertFalse(grid.isRegionVacant(1, 0, 2, 2, block));
+    }
+
+    public void testFindVacantCell() {
+        GridOccupancy grid = new GridOccupancy(3, 3);
+        grid.markCells(0, 0, 2, 1, true);
+        int[] cell = new int[2];
+        assertTrue(grid.findVacantCell(cell, 1, 1));
+        assertEquals(2, cell[0]);
+        assertEquals(0, cell[1]);
+
+        assertTrue(grid.findVacantCell(cell, 3, 2));
+        assertEquals(0, cell[0]);
+        assertEquals(1, cell[1]);
+
+        assertFalse(grid.findVacantCell(cell, 3, 3));
+    }
+
+    public void testCopyTo() {
+        GridOccupancy grid = new GridOccupancy(3, 3);
+        GridOccupancy copy = new GridOccupancy(3, 3);
+        grid.markCells(0, 0, 3, 1, true);
+        assertTrue(copy.isRegionVacant(0, 0, 3, 3));
+        grid.copyTo(copy);
+        assertFalse(copy.isRegionVacant(0, 0, 3, 3));
+        assertTrue(copy.isRegionVacant(0, 1, 3, 2));
+
+        grid.clear();
+        assertTrue(grid.isRegionVacant(0, 0, 3, 3));
+        assertFalse(copy.isRegionVacant(0, 0, 3, 1));
+    }
+}